@@ -15,11 +15,9 @@
  */
 package dk.dma.msinm.common.cache;
 
+import org.infinispan.configuration.cache.CacheMode;
 import org.infinispan.configuration.cache.Configuration;
-import org.infinispan.configuration.global.GlobalConfiguration;
-import org.infinispan.configuration.global.GlobalConfigurationBuilder;
 import org.infinispan.manager.CacheContainer;
-import org.infinispan.manager.DefaultCacheManager;
 import org.slf4j.Logger;
 
 import javax.annotation.PostConstruct;
@@ -27,35 +25,51 @@ import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
 /**
- * Base class for Infinispan caches
+ * Base class for Infinispan caches.
+ * <p>
+ * The named cache of the sub-class is defined in the application-wide
+ * cache container managed by {@linkplain Caches}.
  */
 public abstract class BaseCache {
 
     @Inject
     private Logger log;
 
+    @Inject
+    private Caches caches;
+
     protected CacheContainer cacheContainer;
 
     /**
-     * Starts the cache container
+     * Defines the cache in the shared cache container
      */
     @PostConstruct
     public void initCacheContainer() {
         if (cacheContainer == null) {
-            GlobalConfiguration globalConfiguration = new GlobalConfigurationBuilder()
-                    .nonClusteredDefault() //Helper method that gets you a default constructed GlobalConfiguration, preconfigured for use in LOCAL mode
-                    .build(); //Builds  the GlobalConfiguration object
-            Configuration localConfiguration = createCacheConfiguration();
-            cacheContainer = new DefaultCacheManager(globalConfiguration, localConfiguration, true);
-            log.info("Init cache container");
+            cacheContainer = caches.defineCache(getCacheId(), createCacheConfiguration(), getClusteredCacheMode());
+            log.info("Init cache " + getCacheId());
         }
     }
 
+    /**
+     * Returns the statistics of the cache
+     * @return the statistics of the cache
+     */
+    public CacheStats getCacheStats() {
+        return caches.getCacheStats(getCacheId());
+    }
+
     /**
      * Clears the cache
      */
     public abstract void clearCache();
 
+    /**
+     * Must be implemented by sub-classes to define the name of the cache
+     * @return the name of the cache
+     */
+    public abstract String getCacheId();
+
     /**
      * Must be implemented by sub-classes to define the local cache configuration
      * @return the local cache configuration
@@ -63,14 +77,23 @@ public abstract class BaseCache {
     protected abstract Configuration createCacheConfiguration();
 
     /**
-     * Stops the cache container
+     * May be overridden by sub-classes to define the cache mode to use when the cache
+     * container is clustered. By default, the cache is always local.
+     * @return the cache mode to use in a clustered cache container, or null for local
+     */
+    protected CacheMode getClusteredCacheMode() {
+        return null;
+    }
+
+    /**
+     * Releases the cache container.
+     * The shared cache container itself is stopped by {@linkplain Caches}
      */
     @PreDestroy
     public void destroyCacheContainer() {
         if (cacheContainer != null) {
-            cacheContainer.stop();
             cacheContainer = null;
-            log.info("Stopped cache container");
+            log.info("Released cache " + getCacheId());
         }
     }
 }
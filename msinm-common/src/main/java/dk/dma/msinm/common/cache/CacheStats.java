@@ -0,0 +1,137 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.common.cache;
+
+import dk.dma.msinm.common.vo.JsonSerializable;
+import org.infinispan.stats.Stats;
+
+/**
+ * Reports the statistics of a named cache, used for tuning the
+ * cache sizes and lifespans
+ */
+public class CacheStats implements JsonSerializable {
+
+    String cacheId;
+    long hits;
+    long misses;
+    long evictions;
+    long stores;
+    int size;
+    long timeSinceStart;
+
+    /**
+     * No-argument constructor
+     */
+    public CacheStats() {
+    }
+
+    /**
+     * Constructor
+     * @param cacheId the name of the cache
+     * @param stats the Infinispan cache statistics
+     */
+    public CacheStats(String cacheId, Stats stats) {
+        this.cacheId = cacheId;
+        this.hits = stats.getHits();
+        this.misses = stats.getMisses();
+        this.evictions = stats.getEvictions();
+        this.stores = stats.getStores();
+        this.size = stats.getCurrentNumberOfEntries();
+        this.timeSinceStart = stats.getTimeSinceStart();
+    }
+
+    /**
+     * Returns the ratio of hits to the total number of reads
+     * @return the ratio of hits to the total number of reads
+     */
+    public double getHitRatio() {
+        long reads = hits + misses;
+        return reads == 0 ? 0.0 : (double) hits / (double) reads;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "cacheId='" + cacheId + '\'' +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", stores=" + stores +
+                ", size=" + size +
+                '}';
+    }
+
+    /******** Getters and setters *********/
+
+    public String getCacheId() {
+        return cacheId;
+    }
+
+    public void setCacheId(String cacheId) {
+        this.cacheId = cacheId;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public void setHits(long hits) {
+        this.hits = hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void setMisses(long misses) {
+        this.misses = misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public void setEvictions(long evictions) {
+        this.evictions = evictions;
+    }
+
+    public long getStores() {
+        return stores;
+    }
+
+    public void setStores(long stores) {
+        this.stores = stores;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public long getTimeSinceStart() {
+        return timeSinceStart;
+    }
+
+    public void setTimeSinceStart(long timeSinceStart) {
+        this.timeSinceStart = timeSinceStart;
+    }
+}
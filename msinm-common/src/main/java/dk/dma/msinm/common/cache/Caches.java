@@ -0,0 +1,175 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.common.cache;
+
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfiguration;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.context.Flag;
+import org.infinispan.manager.DefaultCacheManager;
+import org.infinispan.manager.EmbeddedCacheManager;
+import org.slf4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Manages the application-wide Infinispan cache container.
+ * <p>
+ * All {@linkplain BaseCache} sub-classes define their named cache configuration in this
+ * container, rather than starting a cache container each, and thus share the global
+ * component registry, thread pools and eviction threads.
+ * <p>
+ * Statistics are enabled for all caches, and can be accessed via {@linkplain #getCacheStats()}.
+ * <p>
+ * By default, all caches are local. If the "cacheClustered" system property is "true", the cache
+ * container joins a JGroups cluster, and the caches that define a clustered cache mode, use that
+ * mode instead. The JGroups stack is defined by the "cacheJGroupsConfig" system property, and
+ * defaults to a TCP stack on the loopback address, so several nodes can be tested on a single box.
+ * <p>
+ * NB: The properties must be defined as system properties, since the settings are themselves cached.
+ */
+@ApplicationScoped
+public class Caches {
+
+    public static final String CACHE_CLUSTERED_PROPERTY = "cacheClustered";
+    public static final String CACHE_CLUSTER_NAME_PROPERTY = "cacheClusterName";
+    public static final String CACHE_JGROUPS_CONFIG_PROPERTY = "cacheJGroupsConfig";
+
+    @Inject
+    private Logger log;
+
+    private EmbeddedCacheManager cacheManager;
+
+    private boolean clustered;
+
+    /**
+     * Starts the cache container
+     */
+    @PostConstruct
+    public void initCacheContainer() {
+        clustered = Boolean.getBoolean(CACHE_CLUSTERED_PROPERTY);
+
+        GlobalConfiguration globalConfiguration;
+        if (clustered) {
+            globalConfiguration = new GlobalConfigurationBuilder()
+                    .clusteredDefault()
+                    .transport()
+                        .clusterName(System.getProperty(CACHE_CLUSTER_NAME_PROPERTY, "msinm"))
+                        .addProperty("configurationFile", System.getProperty(CACHE_JGROUPS_CONFIG_PROPERTY, "jgroups-msinm.xml"))
+                    .globalJmxStatistics()
+                        .allowDuplicateDomains(true)
+                    .build();
+        } else {
+            globalConfiguration = new GlobalConfigurationBuilder()
+                    .nonClusteredDefault() //Helper method that gets you a default constructed GlobalConfiguration, preconfigured for use in LOCAL mode
+                    .build(); //Builds  the GlobalConfiguration object
+        }
+        cacheManager = new DefaultCacheManager(globalConfiguration, true);
+        log.info("Init " + (clustered ? "clustered" : "local") + " cache container");
+    }
+
+    /**
+     * Returns if the cache container is clustered
+     * @return if the cache container is clustered
+     */
+    public boolean isClustered() {
+        return clustered;
+    }
+
+    /**
+     * Defines the named cache configuration in the cache container.
+     * Statistics are enabled for the cache.
+     * <p>
+     * If the cache container is clustered, and a clustered cache mode is specified,
+     * the cache will use the clustered cache mode instead of the configured cache mode.
+     *
+     * @param cacheId the name of the cache
+     * @param configuration the cache configuration
+     * @param clusteredCacheMode the cache mode to use in a clustered cache container, or null for local
+     * @return the cache container
+     */
+    public synchronized EmbeddedCacheManager defineCache(String cacheId, Configuration configuration, CacheMode clusteredCacheMode) {
+        ConfigurationBuilder builder = new ConfigurationBuilder().read(configuration);
+        builder.jmxStatistics().enable();
+        if (clustered && clusteredCacheMode != null) {
+            builder.clustering().cacheMode(clusteredCacheMode);
+        }
+        Configuration cacheConfiguration = builder.build();
+        cacheManager.defineConfiguration(cacheId, cacheConfiguration);
+        log.info("Defined cache " + cacheId + " with cache mode " + cacheConfiguration.clustering().cacheMode());
+        return cacheManager;
+    }
+
+    /**
+     * Returns a view of the given cache, where writes are only applied locally.
+     * <p>
+     * Use this when populating a clustered cache with data read from the database,
+     * since other nodes can load the data themselves, and invalidating their entries
+     * on every read would defeat the purpose of the cache.
+     *
+     * @param cache the cache
+     * @return a view of the cache where writes are only applied locally
+     */
+    public static <K, V> Cache<K, V> localWrites(Cache<K, V> cache) {
+        return cache.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL);
+    }
+
+    /**
+     * Returns the statistics of the given cache, or null if the cache is not running
+     * @param cacheId the name of the cache
+     * @return the statistics of the given cache
+     */
+    public CacheStats getCacheStats(String cacheId) {
+        if (!cacheManager.isRunning(cacheId)) {
+            return null;
+        }
+        Cache<?, ?> cache = cacheManager.getCache(cacheId);
+        return new CacheStats(cacheId, cache.getAdvancedCache().getStats());
+    }
+
+    /**
+     * Returns the statistics of all running caches
+     * @return the statistics of all running caches
+     */
+    public List<CacheStats> getCacheStats() {
+        return cacheManager.getCacheNames().stream()
+                .sorted()
+                .map(this::getCacheStats)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Stops the cache container
+     */
+    @PreDestroy
+    public void destroyCacheContainer() {
+        if (cacheManager != null) {
+            cacheManager.stop();
+            cacheManager = null;
+            log.info("Stopped cache container");
+        }
+    }
+}
@@ -57,6 +57,14 @@ public class MailAttachmentCache extends BaseCache {
         return cacheContainer.getCache(CACHE_ID);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCacheId() {
+        return CACHE_ID;
+    }
+
     /**
      * Clears the cache
      */
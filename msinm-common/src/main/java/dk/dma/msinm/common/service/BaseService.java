@@ -16,6 +16,8 @@
 package dk.dma.msinm.common.service;
 
 import dk.dma.msinm.common.model.IEntity;
+import org.hibernate.Cache;
+import org.hibernate.SessionFactory;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
@@ -113,4 +115,23 @@ public abstract class BaseService {
         cq.from(entityType);
         return em.createQuery(cq).getResultList();
     }
+
+    /**
+     * Evicts the entities of the given class from the second-level cache, along with
+     * the given cached collections of the entity class.
+     * <p>
+     * Hibernate keeps the second-level cache in sync with changes made through the
+     * entity manager, except for e.g. the inverse side of parent-child relations,
+     * so this should be called when the entity hierarchy is changed.
+     *
+     * @param entityType the entity class
+     * @param collections the names of the cached collections of the entity class
+     */
+    public void evictSecondLevelCache(Class<?> entityType, String... collections) {
+        Cache cache = em.getEntityManagerFactory().unwrap(SessionFactory.class).getCache();
+        cache.evictEntityRegion(entityType);
+        for (String collection : collections) {
+            cache.evictCollectionRegion(entityType.getName() + "." + collection);
+        }
+    }
 }
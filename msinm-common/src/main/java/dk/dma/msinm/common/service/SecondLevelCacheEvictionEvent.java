@@ -0,0 +1,46 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.common.service;
+
+/**
+ * CDI event fired to evict an entity type, and the given collections of it, from the second-level cache.
+ * <p>
+ * The eviction is performed by the {@linkplain SecondLevelCacheEvictor} once the transaction that
+ * fired the event has committed.
+ */
+public class SecondLevelCacheEvictionEvent {
+
+    final Class<?> entityType;
+    final String[] collections;
+
+    /**
+     * Constructor
+     * @param entityType the entity type to evict
+     * @param collections the collections of the entity type to evict
+     */
+    public SecondLevelCacheEvictionEvent(Class<?> entityType, String... collections) {
+        this.entityType = entityType;
+        this.collections = collections;
+    }
+
+    public Class<?> getEntityType() {
+        return entityType;
+    }
+
+    public String[] getCollections() {
+        return collections;
+    }
+}
@@ -0,0 +1,38 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.common.service;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+
+/**
+ * Evicts entities from the second-level cache upon {@linkplain SecondLevelCacheEvictionEvent} events.
+ * <p>
+ * The eviction takes place once the transaction that fired the event has committed. If the cache
+ * was evicted before the commit, a concurrent transaction could re-populate it with the stale data.
+ */
+@ApplicationScoped
+public class SecondLevelCacheEvictor extends BaseService {
+
+    /**
+     * Evicts the entity type and collections of the event from the second-level cache
+     * @param event the eviction event
+     */
+    public void evict(@Observes(during = TransactionPhase.AFTER_SUCCESS) SecondLevelCacheEvictionEvent event) {
+        evictSecondLevelCache(event.getEntityType(), event.getCollections());
+    }
+}
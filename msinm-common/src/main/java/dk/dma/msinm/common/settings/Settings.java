@@ -16,7 +16,9 @@
 package dk.dma.msinm.common.settings;
 
 import dk.dma.msinm.common.cache.CacheElement;
+import dk.dma.msinm.common.cache.Caches;
 import org.apache.commons.lang.StringUtils;
+import org.infinispan.Cache;
 import org.slf4j.Logger;
 
 import javax.annotation.PostConstruct;
@@ -148,11 +150,13 @@ public class Settings {
             value = new CacheElement<>(result.getValue());
 
 
-            // Cache it. NB: We cannot cache null, so use a placeholder constant
+            // Cache it. NB: We cannot cache null, so use a placeholder constant.
+            // Only populate the local cache. Other cluster nodes load the setting themselves
+            Cache<String, CacheElement<String>> cache = Caches.localWrites(settingsCache.getCache());
             if (setting.getCacheTimeout() == null) {
-                settingsCache.getCache().put(setting.getSettingName(), value);
+                cache.put(setting.getSettingName(), value);
             } else {
-                settingsCache.getCache().put(setting.getSettingName(), value, setting.getCacheTimeout(), TimeUnit.SECONDS);
+                cache.put(setting.getSettingName(), value, setting.getCacheTimeout(), TimeUnit.SECONDS);
             }
         }
 
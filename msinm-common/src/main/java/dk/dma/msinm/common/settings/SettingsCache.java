@@ -47,6 +47,14 @@ public class SettingsCache extends BaseCache {
         return cacheContainer.getCache(CACHE_ID);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCacheId() {
+        return CACHE_ID;
+    }
+
     /**
      * Clears the cache
      */
@@ -56,6 +64,14 @@ public class SettingsCache extends BaseCache {
         getCache().clear();
     }
 
+    /**
+     * When clustered, updating a setting on one node invalidates the cached setting on all nodes
+     */
+    @Override
+    protected CacheMode getClusteredCacheMode() {
+        return CacheMode.INVALIDATION_SYNC;
+    }
+
     /**
      * {@inheritDoc}
      */
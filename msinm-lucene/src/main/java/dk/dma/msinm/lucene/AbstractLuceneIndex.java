@@ -17,30 +17,58 @@ package dk.dma.msinm.lucene;
 
 import dk.dma.msinm.common.model.VersionedEntity;
 import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StringField;
-import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.complexPhrase.ComplexPhraseQueryParser;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.store.RAMDirectory;
 import org.slf4j.Logger;
 
 import javax.ejb.AsyncResult;
 import javax.ejb.Asynchronous;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Base class for Lucene index beans
@@ -49,16 +77,71 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
 
     protected final static String ID_FIELD				= "id";
     protected final static String LAST_UPDATE   		= "lastUpdate";
+    protected final static String LAST_UPDATE_ID 		= "lastUpdateId";
+    protected final static String SCHEMA_VERSION 		= "schemaVersion";
+    protected final static String LUCENE_VERSION 		= "luceneVersion";
+    protected final static String REINDEX_IN_PROGRESS 	= "reindexInProgress";
     protected final static int MAX_INDEX_COUNT 			= 5000;
-    protected final static int OPTIMIZE_INDEX_COUNT 	= 5000;
-    protected final static int MAX_NUM_SEGMENTS	 		= 4;
+    protected final static double SEGMENTS_PER_TIER 	= 10.0;
+    protected final static double FLOOR_SEGMENT_MB 		= 2.0;
+    protected final static double MAX_MERGED_SEGMENT_MB = 1024.0;
+    protected final static int MAX_MERGE_COUNT 			= 6;
+    protected final static int MAX_MERGE_THREADS 		= 1;
+    protected final static int MAX_UNCOMMITTED_COUNT 	= 1000;
+    protected final static long MAX_COMMIT_INTERVAL 	= 5 * 60 * 1000;  // 5 minutes
+    protected final static int MAX_CACHED_FILTERS 		= 500;
+    protected final static int MAX_FACET_VALUES 		= 100;
+    protected final static double NRT_CACHE_MAX_MERGE_SIZE_MB = 5.0;
+    protected final static double NRT_CACHE_MAX_CACHED_MB 	= 60.0;
+
+    /**
+     * The Lucene directory implementations that can be used for the index
+     */
+    public enum DirectoryType {
+        /** Lets Lucene pick the best file system directory for the platform */
+        FS,
+        /** Memory-mapped file access */
+        MMAP,
+        /** Concurrent positional file reads via NIO */
+        NIO,
+        /** File system directory where small, newly flushed segments are cached in memory */
+        NRT_CACHING,
+        /** Pure in-memory index, which is lost on restart. Use for tests and throwaway nodes */
+        RAM;
+
+        /**
+         * Parses a directory type setting, e.g. "mmap" or "nrt-caching"
+         * @param value the setting value
+         * @return the directory type, or FS if the value is blank
+         */
+        public static DirectoryType parse(String value) {
+            return StringUtils.isBlank(value)
+                    ? FS
+                    : valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
 
     @Inject
     Logger log;
 
-    DirectoryReader reader;
-    int optimizeIndexCount = 0;
-    boolean locked = false;
+    Directory directory;
+    IndexWriter writer;
+    SearcherManager searcherManager;
+    ReindexStatus reindexStatus = new ReindexStatus();
+    final ReentrantLock updateLock = new ReentrantLock();
+    final AtomicBoolean reindexing = new AtomicBoolean(false);
+    volatile boolean reindexInProgress = false;   // set from when the index is emptied until a re-index completes
+    final IndexStats indexStats = new IndexStats();
+    int uncommittedCount = 0;
+    long lastCommitTime = System.currentTimeMillis();
+    SortedSetDocValuesReaderState facetsState;
+    IndexReader facetsReader;
+    final Map<String, Filter> filterCache = Collections.synchronizedMap(new LinkedHashMap<String, Filter>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Filter> eldest) {
+            return size() > MAX_CACHED_FILTERS;
+        }
+    });
 
     /**
      * Returns the folder used for the index
@@ -67,12 +150,42 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
     protected abstract Path getIndexFolder();
 
     /**
-     * Returns the list of entities updated since the given date
-     * @param fromDate the date after which to look for changed entities
+     * Returns the type of Lucene directory to use for the index.
+     * By default, Lucene picks the best file system directory for the platform
+     * @return the type of Lucene directory to use for the index
+     */
+    protected DirectoryType getDirectoryType() {
+        return DirectoryType.FS;
+    }
+
+    /**
+     * Returns the version of the document schema produced by {@code addEntityToDocument()}.
+     * <p>
+     * The version is stamped in the commit data of the index, and sub-classes should
+     * bump it whenever the indexed fields change, which will cause the index to be
+     * re-created from scratch at start-up.
+     *
+     * @return the version of the document schema
+     */
+    protected int getSchemaVersion() {
+        return 1;
+    }
+
+    /**
+     * Returns the list of entities updated after the given (updated, id) keyset, ordered by
+     * their updated time and id.
+     * <p>
+     * The entities returned are those updated after {@code fromDate}, and those updated
+     * exactly at {@code fromDate} with an id greater than {@code fromId}. If {@code fromId}
+     * is null, all entities updated at {@code fromDate} are included.
+     * Hence, entities sharing the same updated time are never skipped between batches.
+     *
+     * @param fromDate the updated time of the keyset
+     * @param fromId the id of the keyset, or null
      * @param maxCount the max number of entities to return
      * @return the updated entities
      */
-    protected abstract List<T> findUpdatedEntities(Date fromDate, int maxCount);
+    protected abstract List<T> findUpdatedEntities(Date fromDate, Integer fromId, int maxCount);
 
     /**
      * Adds the given entity to the given document
@@ -83,78 +196,334 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
     protected abstract void addEntityToDocument(Document doc, T entity);
 
     /**
-     * Creates and returns a Lucene writer
+     * Returns the shared Lucene writer, or creates one if none is defined.
+     * <p>
+     * The writer is kept open for the life time of the index bean. All updates
+     * to the index go through this writer, so there is never more than one
+     * writer competing for the index write lock.
+     *
+     * @return the shared index writer
      */
-    public IndexWriter getNewWriter() throws IOException {
+    public synchronized IndexWriter getWriter() throws IOException {
+        if (writer == null) {
+            // Add new documents to an existing index:
+            writer = openWriter(OpenMode.CREATE_OR_APPEND);
+        }
+        return writer;
+    }
 
-        StandardAnalyzer analyzer = new StandardAnalyzer(LuceneUtils.LUCENE_VERSION);
+    /**
+     * Opens a new Lucene writer with the given open mode
+     *
+     * @param openMode the open mode
+     * @return the new writer
+     */
+    private IndexWriter openWriter(OpenMode openMode) throws IOException {
+        Analyzer analyzer = NGramAnalyzer.wrap(new StandardAnalyzer(LuceneUtils.LUCENE_VERSION));
         IndexWriterConfig iwc = new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, analyzer);
-        // Add new documents to an existing index:
-        iwc.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        iwc.setOpenMode(openMode);
+
+        // Segments are merged by a tiered merge policy in low-priority background threads
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(SEGMENTS_PER_TIER);
+        mergePolicy.setFloorSegmentMB(FLOOR_SEGMENT_MB);
+        mergePolicy.setMaxMergedSegmentMB(MAX_MERGED_SEGMENT_MB);
+        iwc.setMergePolicy(mergePolicy);
+        iwc.setMergeScheduler(new BackgroundMergeScheduler(indexStats, MAX_MERGE_COUNT, MAX_MERGE_THREADS));
 
         Path indexFolder = getIndexFolder();
         try {
-            Directory dir = FSDirectory.open(indexFolder.toFile());
-            return new IndexWriter(dir, iwc);
+            IndexWriter indexWriter = new IndexWriter(getDirectory(), iwc);
+            lastCommitTime = System.currentTimeMillis();
+            return indexWriter;
         } catch (IOException ex) {
-            log.error("Failed to create Customer Lucene Index in folder " + indexFolder, ex);
+            log.error("Failed to create Lucene Index in folder " + indexFolder, ex);
             throw ex;
         }
     }
 
     /**
-     * Returns the cached index reader, or creates one if none is defined
-     * @return the shared index reader
+     * Returns the Lucene directory of the index, and opens it if necessary.
+     * <p>
+     * The directory is kept open across writers, which e.g. allows an in-memory
+     * index to survive the writer being closed and re-opened
+     *
+     * @return the Lucene directory of the index
+     */
+    protected synchronized Directory getDirectory() throws IOException {
+        if (directory == null) {
+            directory = openDirectory(getDirectoryType(), getIndexFolder());
+        }
+        return directory;
+    }
+
+    /**
+     * Opens a Lucene directory of the given type
+     *
+     * @param type the directory type
+     * @param folder the index folder. Not used for in-memory directories
+     * @return the Lucene directory
+     */
+    public static Directory openDirectory(DirectoryType type, Path folder) throws IOException {
+        switch (type) {
+            case MMAP:
+                return new MMapDirectory(folder.toFile());
+            case NIO:
+                return new NIOFSDirectory(folder.toFile());
+            case NRT_CACHING:
+                return new NRTCachingDirectory(FSDirectory.open(folder.toFile()), NRT_CACHE_MAX_MERGE_SIZE_MB, NRT_CACHE_MAX_CACHED_MB);
+            case RAM:
+                return new RAMDirectory();
+            default:
+                return FSDirectory.open(folder.toFile());
+        }
+    }
+
+    /**
+     * Closes the Lucene directory.
+     * Call {@linkplain #closeWriter()} before closing the directory
      */
-    public DirectoryReader getIndexReader() throws IOException {
-        if (reader == null) {
-            Path indexFolder = getIndexFolder();
+    public synchronized void closeDirectory() {
+        if (directory != null) {
             try {
-                reader = DirectoryReader.open(FSDirectory.open(indexFolder.toFile()));
-            } catch (IOException ex) {
-                log.error("Failed to open Lucene Index in folder " + indexFolder);
-                throw ex;
+                directory.close();
+            } catch (IOException e) {
+                log.warn("Error closing Lucene directory");
             }
+            directory = null;
         }
-        return reader;
     }
 
     /**
-     * Closes the given writer
-     * @param writer the writer to close
+     * Opens the existing index, typically at start-up, and validates that it can be resumed.
+     * <p>
+     * The index can be resumed from its last commit if it can be opened, the
+     * schema and Lucene versions stamped in the commit data match the current versions,
+     * and the last commit is not that of an incomplete re-index.
+     * Otherwise, the index is emptied, and must be re-created, e.g. via {@linkplain #recreateIndexAsync()}.
+     *
+     * @return if the existing index was resumed
      */
-    public void closeWriter(IndexWriter writer) {
-        if (writer != null) {
+    public boolean openIndex() {
+        updateLock.lock();
+        try {
+            Map<String, String> userData = getWriter().getCommitData();
+            String schemaVersion = userData.get(SCHEMA_VERSION);
+            String luceneVersion = userData.get(LUCENE_VERSION);
+            boolean incomplete = Boolean.parseBoolean(userData.get(REINDEX_IN_PROGRESS));
+            if (!incomplete &&
+                    String.valueOf(getSchemaVersion()).equals(schemaVersion) &&
+                    LuceneUtils.LUCENE_VERSION.name().equals(luceneVersion)) {
+                log.info("Resuming Lucene index in " + getIndexFolder() + " last updated " + getLastUpdated());
+                return true;
+            }
+            log.info(String.format("Lucene index in %s has schema version %s and Lucene version %s%s. Re-creating index.",
+                    getIndexFolder(), schemaVersion, luceneVersion, incomplete ? " and is incomplete" : ""));
+            reindexInProgress = true;
+            deleteIndex();
+
+        } catch (IOException ex) {
+            log.error("Failed to open Lucene index in " + getIndexFolder() + ". Re-creating index.", ex);
+            reindexInProgress = true;
+            recreateCorruptIndex();
+        } finally {
+            updateLock.unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Overwrites an index that cannot be opened, e.g. because it is corrupt,
+     * with a new empty index
+     */
+    private void recreateCorruptIndex() {
+        closeSearcherManager();
+        closeWriter();
+        try {
+            IndexWriter indexWriter = openWriter(OpenMode.CREATE);
+            indexWriter.close();
+            deleteIndex();
+        } catch (IOException ex) {
+            log.error("Failed to re-create Lucene index in " + getIndexFolder(), ex);
+        }
+    }
+
+    /**
+     * Returns the index maintenance statistics, such as the number of
+     * segments of the current searcher and the background merge activity.
+     * <p>
+     * A new snapshot is returned on each call, so concurrent callers never see each other's values
+     *
+     * @return the index maintenance statistics
+     */
+    public IndexStats getIndexStats() {
+        IndexStats stats = indexStats.snapshot();
+        IndexSearcher searcher = null;
+        try {
+            searcher = acquireSearcher();
+            IndexReader reader = searcher.getIndexReader();
+            stats.setSegmentCount(reader.leaves().size());
+            stats.setDocCount(reader.numDocs());
+            stats.setDeletedDocCount(reader.numDeletedDocs());
+            stats.setPendingMerges(getWriter().hasPendingMerges());
+        } catch (IOException e) {
+            log.warn("Failed computing index statistics", e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the shared searcher manager, or creates one if none is defined.
+     * <p>
+     * The searcher manager reference counts the searchers it hands out, so a search
+     * that is running while the index is refreshed keeps using its own point-in-time
+     * searcher, and the underlying reader is only closed once the last search releases it.
+     * <p>
+     * The searchers are opened in near-real-time mode from the shared writer,
+     * so changes become searchable when the manager is refreshed, even before
+     * they are committed.
+     *
+     * @return the shared searcher manager
+     */
+    public synchronized SearcherManager getSearcherManager() throws IOException {
+        if (searcherManager == null) {
+            searcherManager = new SearcherManager(getWriter(), true, new SearcherFactory());
+
+            // Cached filters are dropped whenever a new reader is opened
+            searcherManager.addListener(new ReferenceManager.RefreshListener() {
+                @Override
+                public void beforeRefresh() {
+                }
+
+                @Override
+                public void afterRefresh(boolean didRefresh) {
+                    if (didRefresh) {
+                        filterCache.clear();
+                        searcherRefreshed();
+                    }
+                }
+            });
+        }
+        return searcherManager;
+    }
+
+    /**
+     * Called when the searcher manager has opened a new reader, i.e. when changes to the index
+     * become visible to searches. Sub-classes may override this to invalidate derived caches.
+     */
+    protected void searcherRefreshed() {
+    }
+
+    /**
+     * Acquires a searcher from the searcher manager.
+     * The searcher must be released using {@linkplain #releaseSearcher(IndexSearcher)}
+     *
+     * @return the acquired searcher
+     */
+    protected IndexSearcher acquireSearcher() throws IOException {
+        return getSearcherManager().acquire();
+    }
+
+    /**
+     * Releases a searcher acquired via {@linkplain #acquireSearcher()}
+     *
+     * @param searcher the searcher to release
+     */
+    protected void releaseSearcher(IndexSearcher searcher) {
+        if (searcher != null && searcherManager != null) {
             try {
-                writer.close();
+                searcherManager.release(searcher);
             } catch (IOException e) {
-                log.warn("Error closing writer");
+                log.warn("Error releasing searcher");
             }
         }
     }
 
     /**
-     * Closes the current reader
+     * Commits any pending changes and closes the shared writer.
+     * Call {@linkplain #closeSearcherManager()} before closing the writer
      */
-    public void closeReader() {
-        if (reader != null) {
+    public void closeWriter() {
+        updateLock.lock();
+        try {
+            synchronized (this) {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        log.warn("Error closing writer");
+                    }
+                    writer = null;
+                    uncommittedCount = 0;
+                }
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Commits the pending changes of the shared writer
+     */
+    public void commit() throws IOException {
+        updateLock.lock();
+        try {
+            getWriter().commit();
+            uncommittedCount = 0;
+            lastCommitTime = System.currentTimeMillis();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Commits the pending changes if the commit policy calls for it, i.e. if the
+     * number of uncommitted changes exceeds {@code MAX_UNCOMMITTED_COUNT} or the
+     * last commit is older than {@code MAX_COMMIT_INTERVAL}.
+     * <p>
+     * Uncommitted changes are still searchable, since the searchers are near-real-time.
+     * They are merely not durable until the next commit.
+     *
+     * @param force whether to commit pending changes regardless of the commit policy
+     */
+    protected void commitIfNeeded(boolean force) throws IOException {
+        if (uncommittedCount > 0 &&
+                (force ||
+                 uncommittedCount >= MAX_UNCOMMITTED_COUNT ||
+                 System.currentTimeMillis() - lastCommitTime >= MAX_COMMIT_INTERVAL)) {
+            commit();
+        }
+    }
+
+    /**
+     * Closes the current searcher manager.
+     * Searchers that are still in use will be closed once they are released
+     */
+    public synchronized void closeSearcherManager() {
+        if (searcherManager != null) {
             try {
-                reader.close();
+                searcherManager.close();
+                filterCache.clear();
+                facetsState = null;
+                facetsReader = null;
             } catch (IOException e) {
-                log.warn("Error closing reader");
+                log.warn("Error closing searcher manager");
             }
-            reader = null;
+            searcherManager = null;
         }
     }
 
     /**
-     * Refreshes the current reader from the given writer
-     *
-     * @param writer the index writer
+     * Refreshes the searcher manager after changes have been committed to the index.
+     * <p>
+     * The refresh is non-blocking: if another thread is already refreshing the
+     * searcher manager, this call returns immediately, and searches in progress
+     * are never blocked by the refresh.
      */
-    protected void refreshReader(IndexWriter writer) throws IOException {
-        closeReader();
-        reader = DirectoryReader.open(writer, true);
+    protected void refreshSearcher() throws IOException {
+        getSearcherManager().maybeRefresh();
     }
 
     /**
@@ -168,149 +537,479 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
     }
 
     /**
-     * Call this to re-index the entity index completely
-     * @throws IOException
+     * Call this to re-index the entity index completely.
+     * <p>
+     * If the sub-class supports bulk re-indexing, i.e. returns a source from
+     * {@linkplain #getBulkReindexSource()}, the id partitions of the source are indexed in parallel.
+     * Otherwise, the entities are re-indexed in batches of {@code MAX_INDEX_COUNT}.
+     * Either way, scheduled updates may safely interleave with the re-indexing.
+     * <p>
+     * Until the re-indexing has completed, all commits are flagged as incomplete in the
+     * commit data, so that a partial index is never resumed by {@linkplain #openIndex()}.
+     * <p>
+     * The progress can be monitored via {@linkplain #getReindexStatus()}.
+     *
+     * @return the number of re-indexed entities
      */
     public int recreateIndex() throws IOException {
         // Check if we are already in the middle of re-indexing
-        if (locked) {
+        if (!reindexing.compareAndSet(false, true)) {
             return 0;
         }
 
         // Go ahead and re-index all
-        locked = true;
+        ReindexStatus status = new ReindexStatus();
+        reindexStatus = status;
+        status.start();
         try {
-            // delete the old index
+            // Flag the index as incomplete, and delete the old index
+            reindexInProgress = true;
             deleteIndex();
 
-            // Update all customers
-            return updateLuceneIndex(Integer.MAX_VALUE, true);
+            BulkReindexSource<T> source = getBulkReindexSource();
+            if (source != null) {
+                bulkReindex(source, status);
+
+            } else {
+                // Update all entities in batches. A failed batch aborts the re-indexing
+                int batchCount;
+                do {
+                    batchCount = updateIndex(MAX_INDEX_COUNT, true);
+                    status.entitiesIndexed(batchCount);
+                } while (batchCount > 0);
+                completeReindex();
+            }
+
+            log.info(String.format("Re-indexed %d entities in %d ms", status.getIndexedCount(), status.getElapsedTime()));
+            return status.getIndexedCount();
+
+        } catch (IOException | RuntimeException ex) {
+            status.setError(ex.getMessage());
+            throw ex;
+        } finally {
+            status.end();
+            reindexing.set(false);
+        }
+    }
+
+    /**
+     * Re-indexes all entities by indexing the id partitions of the given source in parallel.
+     * <p>
+     * Each worker thread streams the entities of one partition at a time via
+     * {@linkplain BulkReindexSource#streamEntities(IdRange, Consumer)} and feeds the documents to the shared writer.
+     * <p>
+     * If a worker fails, the remaining workers are aborted, and the partial index is neither stamped
+     * as last updated nor committed. The index remains flagged as incomplete, and the error is re-thrown.
+     *
+     * @param source the source of the entities to index
+     * @param status the re-index status to update
+     */
+    private void bulkReindex(BulkReindexSource<T> source, ReindexStatus status) throws IOException {
+        ManagedExecutorService executor = source.getExecutor();
+        if (executor == null) {
+            throw new IllegalStateException("No managed executor service defined for bulk re-indexing");
+        }
+        List<IdRange> partitions = source.getPartitions();
+        Date startTime = status.getStartTime();
+        IndexWriter writer = getWriter();
+
+        // Let incremental updates only pick up changes made after the re-indexing started
+        updateLock.lock();
+        try {
+            setLastUpdated(startTime, null, writer);
+        } finally {
+            updateLock.unlock();
+        }
+
+        // Start the workers, each of which indexes partitions until none are left or the re-indexing is aborted.
+        // The active workers are counted, so that an aborted re-indexing can wait for the running workers to stop
+        status.setPartitionCount(partitions.size());
+        ConcurrentLinkedQueue<IdRange> queue = new ConcurrentLinkedQueue<>(partitions);
+        AtomicBoolean aborted = new AtomicBoolean(false);
+        AtomicInteger activeWorkers = new AtomicInteger(0);
+        List<Future<Void>> workers = new ArrayList<>();
+        for (int x = 0; x < Math.max(1, source.getThreadCount()); x++) {
+            workers.add(executor.submit(() -> {
+                activeWorkers.incrementAndGet();
+                try {
+                    for (IdRange partition = queue.poll(); partition != null && !aborted.get(); partition = queue.poll()) {
+                        source.streamEntities(partition, entity -> {
+                            if (aborted.get()) {
+                                throw new CancellationException("Re-indexing aborted");
+                            }
+                            indexEntity(writer, entity);
+                            status.entityIndexed();
+                        });
+                        status.partitionIndexed();
+                    }
+                    return null;
+                } finally {
+                    synchronized (activeWorkers) {
+                        activeWorkers.decrementAndGet();
+                        activeWorkers.notifyAll();
+                    }
+                }
+            }));
+        }
+
+        // Wait for the workers to complete. Abort the re-indexing upon the first failure
+        try {
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException | ExecutionException ex) {
+            aborted.set(true);
+            workers.forEach(worker -> worker.cancel(false));
+            awaitWorkers(activeWorkers);
+
+            // Drop the last-updated keyset stamped above, so that the incremental updates
+            // will index all entities rather than only those changed after the start time
+            updateLock.lock();
+            try {
+                writer.setCommitData(getVersionCommitData());
+            } finally {
+                updateLock.unlock();
+            }
+
+            log.error("Error re-indexing entities. Re-indexing aborted", ex);
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Error re-indexing entities: " + ex.getMessage(), ex);
+        }
 
+        // Reset the last-updated flag, to have the next incremental update pick up all
+        // changes made whilst re-indexing, and commit the re-indexed entities
+        updateLock.lock();
+        try {
+            setLastUpdated(startTime, null, writer);
+            completeReindex();
         } finally {
-            locked = false;
+            updateLock.unlock();
+        }
+        refreshSearcher();
+    }
+
+    /**
+     * Waits for the workers of an aborted bulk re-indexing to stop
+     *
+     * @param activeWorkers the number of active workers
+     */
+    private void awaitWorkers(AtomicInteger activeWorkers) {
+        synchronized (activeWorkers) {
+            while (activeWorkers.get() > 0) {
+                try {
+                    activeWorkers.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
         }
     }
 
+    /**
+     * Clears the incomplete flag of the index, and commits the index
+     * along with the current last-updated keyset
+     */
+    private void completeReindex() throws IOException {
+        updateLock.lock();
+        try {
+            reindexInProgress = false;
+            setLastUpdated(getLastUpdated(), getLastUpdatedId(), getWriter());
+            commit();
+        } finally {
+            updateLock.unlock();
+        }
+        reindexCompleted();
+    }
+
+    /**
+     * Called when a re-index has completed and been committed, i.e. when the index again
+     * contains all entities. Sub-classes may override this to flag the index as complete.
+     */
+    protected void reindexCompleted() {
+    }
+
+    /**
+     * Returns the status of the current or latest re-indexing
+     * @return the status of the current or latest re-indexing
+     */
+    public ReindexStatus getReindexStatus() {
+        return reindexStatus;
+    }
+
+    /**
+     * Returns the source of the entities used for bulk re-indexing, or null
+     * if the sub-class does not support bulk re-indexing.
+     *
+     * @return the source of the entities used for bulk re-indexing
+     */
+    protected BulkReindexSource<T> getBulkReindexSource() {
+        return null;
+    }
+
+    /**
+     * Returns if the index is currently being re-created
+     * @return if the index is currently being re-created
+     */
+    public boolean isReindexing() {
+        return reindexing.get();
+    }
+
+    /**
+     * Returns if the index has been emptied by a re-index that has not completed,
+     * either because it is still running or because it failed
+     * @return if the index is incomplete
+     */
+    public boolean isIndexIncomplete() {
+        return reindexInProgress;
+    }
+
     /**
      * Deletes the current index
      * @throws IOException
      */
     public void deleteIndex() throws IOException {
         // Delete the index
-        IndexWriter writer = null;
+        updateLock.lock();
         try {
-            writer = getNewWriter();
+            IndexWriter writer = getWriter();
             writer.deleteAll();
-            writer.setCommitData(new HashMap<>());
-            writer.commit();
+            writer.setCommitData(getVersionCommitData());
+            commit();
         } finally {
-            closeWriter(writer);
+            updateLock.unlock();
         }
+
+        // Make the (now empty) index visible to searches
+        refreshSearcher();
     }
 
     /**
-     * Returns the last updated time
+     * Returns the last updated time.
+     * <p>
+     * The time is read from the commit data of the writer, which reflects the
+     * latest update, whether or not it has been committed yet.
+     *
      * @return the last updated time
      */
     private Date getLastUpdated() {
         try {
-            DirectoryReader reader = getIndexReader();
-            if (reader.getIndexCommit().getUserData().containsKey(LAST_UPDATE)) {
-                return new Date(Long.valueOf(reader.getIndexCommit().getUserData().get(LAST_UPDATE)));
+            Map<String, String> userData = getWriter().getCommitData();
+            if (userData.containsKey(LAST_UPDATE)) {
+                return new Date(Long.valueOf(userData.get(LAST_UPDATE)));
             }
         } catch (Exception e) {
-            log.debug("Could not get last-updated flag from index reader");
+            log.debug("Could not get last-updated flag from index writer");
         }
         return new Date(0);
     }
 
     /**
-     * Sets the last updated time
+     * Returns the id of the last updated entity, i.e. the id part of the (updated, id) keyset
+     * of the latest update, or null if undefined
+     *
+     * @return the id of the last updated entity
+     */
+    private Integer getLastUpdatedId() {
+        try {
+            Map<String, String> userData = getWriter().getCommitData();
+            if (userData.containsKey(LAST_UPDATE_ID)) {
+                return Integer.valueOf(userData.get(LAST_UPDATE_ID));
+            }
+        } catch (Exception e) {
+            log.debug("Could not get last-updated id from index writer");
+        }
+        return null;
+    }
+
+    /**
+     * Sets the last updated time and id.
+     * The keyset is persisted with the next commit, along with the schema and Lucene versions
+     *
      * @param date the last updated time
+     * @param id the id of the last updated entity, or null to include all entities updated at the given time
      */
-    private void setLastUpdated(Date date, IndexWriter writer) {
-        Map<String,String> userData = new HashMap<>();
+    private void setLastUpdated(Date date, Integer id, IndexWriter writer) {
+        Map<String,String> userData = getVersionCommitData();
         userData.put(LAST_UPDATE, String.valueOf(date.getTime()));
+        if (id != null) {
+            userData.put(LAST_UPDATE_ID, String.valueOf(id));
+        }
         writer.setCommitData(userData);
     }
 
     /**
-     * Updates the Lucene index
+     * Returns the numeric id of the entity, or null if the id is not numeric
+     *
+     * @param entity the entity
+     * @return the numeric id of the entity
+     */
+    private Integer getNumericId(T entity) {
+        return (entity.getId() instanceof Number) ? ((Number) entity.getId()).intValue() : null;
+    }
+
+    /**
+     * Returns commit data containing the current schema and Lucene versions,
+     * and the incomplete flag whilst the index is being re-created
+     * @return commit data containing the current schema and Lucene versions
+     */
+    private Map<String, String> getVersionCommitData() {
+        Map<String,String> userData = new HashMap<>();
+        userData.put(SCHEMA_VERSION, String.valueOf(getSchemaVersion()));
+        userData.put(LUCENE_VERSION, LuceneUtils.LUCENE_VERSION.name());
+        if (reindexInProgress) {
+            userData.put(REINDEX_IN_PROGRESS, "true");
+        }
+        return userData;
+    }
+
+    /**
+     * Updates the Lucene index.
+     * <p>
+     * Updates are serialized via the update lock, and the changes are
+     * committed according to the commit policy of {@linkplain #commitIfNeeded(boolean)}.
      *
      * @param maxIndexCount max number of entities to index at a time
-     * @param force update even if the locked flag is set
+     * @param force commit the changes immediately rather than according to the commit policy
      * @return the number of updates
      */
     public int updateLuceneIndex(int maxIndexCount, boolean force) {
-        // Check if we are in the middle of re-indexing
-        if (!force && locked) {
+        try {
+            return updateIndex(maxIndexCount, force);
+        } catch (Exception ex) {
+            log.error("Error updating Lucene index: " + ex.getMessage(), ex);
             return 0;
         }
+    }
 
-        Date lastUpdated = getLastUpdated();
+    /**
+     * Updates the Lucene index, as described by {@linkplain #updateLuceneIndex(int, boolean)}.
+     *
+     * @param maxIndexCount max number of entities to index at a time
+     * @param force commit the changes immediately rather than according to the commit policy
+     * @return the number of updates
+     */
+    private int updateIndex(int maxIndexCount, boolean force) throws IOException {
+        updateLock.lock();
+        try {
+            Date lastUpdated = getLastUpdated();
+            Integer lastUpdatedId = getLastUpdatedId();
 
-        long t0 = System.currentTimeMillis();
-        log.debug(String.format("Indexing at most %d changed entities since %s", maxIndexCount, lastUpdated));
+            long t0 = System.currentTimeMillis();
+            log.debug(String.format("Indexing at most %d changed entities since %s", maxIndexCount, lastUpdated));
 
-        IndexWriter writer = null;
-        try {
-            // Find all customers changed since the lastUpdated time stamp
-            List<T> updatedEntities = findUpdatedEntities(lastUpdated, maxIndexCount);
+            // Find all entities changed since the (lastUpdated, lastUpdatedId) keyset
+            List<T> updatedEntities = findUpdatedEntities(lastUpdated, lastUpdatedId, maxIndexCount);
             if (updatedEntities.size() == 0) {
+                // Check if earlier changes are due to be committed
+                commitIfNeeded(force);
                 return 0;
             }
 
-
-            // Create a new index writer
-            writer = getNewWriter();
-
             // Update the index with the changes
+            IndexWriter writer = getWriter();
             for (T entity : updatedEntities) {
                 indexEntity(writer, entity);
-                if (entity.getUpdated().after(lastUpdated)) {
-                    lastUpdated = entity.getUpdated();
+                Integer id = getNumericId(entity);
+                long updated = entity.getUpdated().getTime();
+                if (updated > lastUpdated.getTime() ||
+                        (updated == lastUpdated.getTime() && id != null && (lastUpdatedId == null || id > lastUpdatedId))) {
+                    lastUpdated = new Date(updated);
+                    lastUpdatedId = id;
                 }
             }
 
-            // Update the last-updated flag
-            setLastUpdated(lastUpdated, writer);
-
-            // Commit the changes
-            writer.commit();
+            // Update the last-updated keyset
+            setLastUpdated(lastUpdated, lastUpdatedId, writer);
 
-            // Re-open the reader from the writer
-            refreshReader(writer);
+            // Commit the changes if required by the commit policy
+            uncommittedCount += updatedEntities.size();
+            commitIfNeeded(force);
 
-            // Check if we need to optimize the index
-            optimizeIndexCount += updatedEntities.size();
-            if (optimizeIndexCount > OPTIMIZE_INDEX_COUNT) {
-                writer.forceMerge(MAX_NUM_SEGMENTS);
-                optimizeIndexCount = 0;
-            }
+            // Refresh the searcher manager with the changes.
+            // NB: Segments are merged in the background by the merge scheduler
+            refreshSearcher();
 
             log.info("Indexed " + updatedEntities.size() + " entities in "
                     + (System.currentTimeMillis() - t0) + " ms");
 
             return updatedEntities.size();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Re-indexes the given entities straight away, e.g. in response to a change notification.
+     * <p>
+     * The last-updated flag is left untouched, so the entities will be indexed once
+     * more by the next incremental update, which is harmless since indexing an entity
+     * is idempotent.
+     *
+     * @param entities the entities to re-index
+     * @return the number of updates
+     */
+    public int indexEntities(List<T> entities) {
+        return indexEntities(() -> entities);
+    }
+
+    /**
+     * Re-indexes the entities returned by the loader straight away, e.g. in response to a change notification.
+     * <p>
+     * The entities are loaded while holding the update lock. Otherwise, an incremental update could
+     * index a newer version of an entity, and advance the last-updated keyset past it, between the
+     * loading and the indexing of the entity, leaving the stale version in the index.
+     *
+     * @param loader loads the entities to re-index
+     * @return the number of updates
+     */
+    public int indexEntities(Supplier<List<T>> loader) {
+        updateLock.lock();
+        try {
+            long t0 = System.currentTimeMillis();
+
+            List<T> entities = loader.get();
+            if (entities.isEmpty()) {
+                return 0;
+            }
+
+            IndexWriter writer = getWriter();
+            for (T entity : entities) {
+                indexEntity(writer, entity);
+            }
+
+            // Commit the changes if required by the commit policy
+            uncommittedCount += entities.size();
+            commitIfNeeded(false);
+
+            // Refresh the searcher manager with the changes
+            refreshSearcher();
+
+            log.debug("Re-indexed " + entities.size() + " entities in "
+                    + (System.currentTimeMillis() - t0) + " ms");
+
+            return entities.size();
         } catch (Exception ex) {
-            log.error("Error updating Lucene index: " + ex.getMessage(), ex);
+            log.error("Error re-indexing entities: " + ex.getMessage(), ex);
             return 0;
         } finally {
-            closeWriter(writer);
+            updateLock.unlock();
         }
     }
 
     /**
-     * Indexes the given entity by deleting and adding the document
+     * Indexes the given entity by atomically replacing its document,
+     * or deleting the document if the entity should not be indexed
      *
      * @param entity the entity to index
      */
     protected void indexEntity(IndexWriter writer, T entity) {
-        // First delete the entity
-        deleteEntityFromIndex(writer, entity);
-        // Then add the entity
         if (shouldAddEntity(entity)) {
             addEntityToIndex(writer, entity);
+        } else {
+            deleteEntityFromIndex(writer, entity);
         }
     }
 
@@ -341,22 +1040,28 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
 
 
     /**
-     * Adds the given entity to the index
+     * Adds the given entity to the index, replacing any existing document for the entity
      *
      * @param entity the entity to add
      */
     protected void addEntityToIndex(IndexWriter writer, T entity) {
         Document doc = new Document();
 
-        // ID field
+        // ID field. Numeric ids are also stored as doc values, used for collecting search results
         doc.add(new StringField(ID_FIELD, entity.getId().toString(), Field.Store.YES));
+        if (entity.getId() instanceof Number) {
+            doc.add(new NumericDocValuesField(ID_FIELD, ((Number) entity.getId()).longValue()));
+        }
 
         // Add the entity specific fields
         addEntityToDocument(doc, entity);
 
         // Add the document to the index
         try {
-            writer.addDocument(doc);
+            if (getFacetsConfig() != null) {
+                doc = getFacetsConfig().build(doc);
+            }
+            writer.updateDocument(new Term(ID_FIELD, entity.getId().toString()), doc);
         } catch (IOException ex) {
             log.error("Error adding entity " + entity.getId() + " to the Lucene index: " + ex.getMessage(), ex);
         }
@@ -373,6 +1078,66 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
             String str = (obj instanceof String) ? (String)obj : obj.toString();
             if (StringUtils.isNotBlank(str)) {
                 doc.add(new PhraseSearchLuceneField(field, str));
+                if (isNGramIndexed(field)) {
+                    addNGramSearchField(doc, field, str);
+                }
+            }
+        }
+    }
+
+    /**
+     * If the given value is not null, it is added to the n-gram version of the
+     * search field, used for resolving infix searches.
+     * This is done automatically by {@linkplain #addPhraseSearchField(Document, String, Object)}
+     * for fields flagged by {@linkplain #isNGramIndexed(String)}
+     *
+     * @param doc the document to add the field value to
+     * @param field the search field
+     * @param obj the value to add
+     */
+    protected void addNGramSearchField(Document doc, String field, Object obj) {
+        if (obj != null) {
+            String str = (obj instanceof String) ? (String)obj : obj.toString();
+            if (StringUtils.isNotBlank(str)) {
+                doc.add(new TextField(field + NGramAnalyzer.NGRAM_FIELD_SUFFIX, LuceneUtils.normalize(str), Field.Store.NO));
+            }
+        }
+    }
+
+    /**
+     * Returns if the given search field has an n-gram version, in which case
+     * leading-wildcard searches are rewritten into n-gram term lookups
+     *
+     * @param field the search field
+     * @return if the given search field has an n-gram version
+     */
+    protected boolean isNGramIndexed(String field) {
+        return false;
+    }
+
+    /**
+     * Returns the facets configuration, if the documents have facet fields.
+     * By default, null is returned
+     *
+     * @return the facets configuration
+     */
+    protected FacetsConfig getFacetsConfig() {
+        return null;
+    }
+
+    /**
+     * If the given value is not null, it is added as a value of the given facet dimension.
+     * Sub-classes must also override {@linkplain #getFacetsConfig()}
+     *
+     * @param doc the document to add the facet value to
+     * @param dim the facet dimension
+     * @param obj the value to add
+     */
+    protected void addFacetField(Document doc, String dim, Object obj) {
+        if (obj != null) {
+            String str = (obj instanceof String) ? (String)obj : obj.toString();
+            if (StringUtils.isNotBlank(str)) {
+                doc.add(new SortedSetDocValuesFacetField(dim, str));
             }
         }
     }
@@ -394,17 +1159,59 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
     }
 
     /**
-     * Performs a search in the index and returns the ids of matching entities
+     * If the given date is not null, it is added to the index as a numeric
+     * field that can be used for both range filtering and sorting
+     *
+     * @param doc the document to add the field value to
+     * @param field the field
+     * @param date the date to add
+     */
+    protected void addDateField(Document doc, String field, Date date) {
+        if (date != null) {
+            doc.add(new LongField(field, date.getTime(), Field.Store.NO));
+            doc.add(new NumericDocValuesField(field, date.getTime()));
+        }
+    }
+
+    /**
+     * If the given value is not null, it is added to the index as a
+     * numeric doc values field that can be used for sorting
+     *
+     * @param doc the document to add the field value to
+     * @param field the field
+     * @param value the value to add
+     */
+    protected void addSortField(Document doc, String field, Number value) {
+        if (value != null) {
+            doc.add(new NumericDocValuesField(field, value.longValue()));
+        }
+    }
+
+    /**
+     * Returns a cached version of the filter with the given key, creating it
+     * via the filter supplier if it is not cached.
+     * <p>
+     * The doc-id sets of cached filters are computed once per index segment, and
+     * the cache is dropped whenever the searcher manager opens a new reader.
+     * The key must uniquely identify the filter, e.g. via a normalized geometry.
+     *
+     * @param key the key of the filter
+     * @param filterSupplier supplies the filter if it is not cached
+     * @return the cached filter
+     */
+    protected Filter getCachedFilter(String key, Supplier<Filter> filterSupplier) {
+        return filterCache.computeIfAbsent(key, k -> new CachingWrapperFilter(filterSupplier.get()));
+    }
+
+    /**
+     * Parses the free text search into a query for the given field.
+     * If no free text search is specified, a match-all query is returned
      *
      * @param freeTextSearch the search string
      * @param field the field to search
-     * @param filter an optional filter
-     * @param maxHits the max number of hits to return
-     * @return the matching ids
+     * @return the query
      */
-    public List<Long> searchIndex(String freeTextSearch, String field, Filter filter, int maxHits) throws IOException, ParseException {
-
-        Query query;
+    protected Query parseQuery(String freeTextSearch, String field) throws ParseException {
         if (StringUtils.isNotBlank(freeTextSearch) && StringUtils.isNotBlank(field)) {
             // Normalize query text
             freeTextSearch = LuceneUtils.normalizeQuery(freeTextSearch);
@@ -415,25 +1222,187 @@ public abstract class AbstractLuceneIndex<T extends VersionedEntity<?>> {
                     field,
                     new StandardAnalyzer(LuceneUtils.LUCENE_VERSION));
             parser.setDefaultOperator(QueryParser.OR_OPERATOR);
-            parser.setAllowLeadingWildcard(true); // NB: Expensive!
-            query = parser.parse(freeTextSearch);
-
-        } else {
-            query = new MatchAllDocsQuery();
+            parser.setAllowLeadingWildcard(true); // NB: Expensive, unless rewritten to n-gram lookups
+            Query query = parser.parse(freeTextSearch);
+            return isNGramIndexed(field)
+                    ? NGramAnalyzer.rewriteInfixQuery(query, field + NGramAnalyzer.NGRAM_FIELD_SUFFIX)
+                    : query;
         }
+        return new MatchAllDocsQuery();
+    }
+
+    /**
+     * Performs a search in the index and returns the ids of matching entities.
+     * <p>
+     * The hits are not scored, and the ids are collected from the numeric doc values of the id field.
+     *
+     * @param freeTextSearch the search string
+     * @param field the field to search
+     * @param filter an optional filter
+     * @param maxHits the max number of hits to return
+     * @return the matching ids
+     */
+    public IdSet searchIndex(String freeTextSearch, String field, Filter filter, int maxHits) throws IOException, ParseException {
+
+        Query query = parseQuery(freeTextSearch, field);
 
         // Perform the search and collect the ids
-        IndexSearcher searcher = new IndexSearcher(getIndexReader());
-        TopDocs results = (filter == null)
-                ? searcher.search(query, maxHits)
-                : searcher.search(query, filter, maxHits);
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            IdCollector collector = new IdCollector(ID_FIELD, maxHits);
+            searcher.search(query, filter, collector);
+            return collector.getIds();
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    /**
+     * Performs a sorted search in the index and returns a page of ids of matching entities.
+     * <p>
+     * Only the top {@code startIndex + maxHits} documents are collected, and the ids
+     * of the page are read from the numeric doc values of the id field.
+     * <p>
+     * The hit counts of the values of the given facet dimensions are
+     * computed in the same pass as the hits are collected.
+     *
+     * @param query the query
+     * @param filter an optional filter
+     * @param sort the sort order
+     * @param startIndex the index of the first hit of the page
+     * @param maxHits the max number of hits of the page
+     * @param facetDims the facet dimensions to count
+     * @return the page of matching ids
+     */
+    public IdPage searchIndex(Query query, Filter filter, Sort sort, int startIndex, int maxHits, String... facetDims) throws IOException {
+        return searchIndex(query, filter, sort, null, startIndex, maxHits, facetDims);
+    }
+
+    /**
+     * Performs a sorted search in the index and returns a page of ids of matching entities.
+     * <p>
+     * If {@code after} is defined, only hits sorted after the given sort values are collected.
+     * This allows for keyset pagination, where every page costs the same as the first page.
+     *
+     * @param query the query
+     * @param filter an optional filter
+     * @param sort the sort order
+     * @param after if defined, the sort values of the last hit of the previous page
+     * @param startIndex the index of the first hit of the page
+     * @param maxHits the max number of hits of the page
+     * @param facetDims the facet dimensions to count
+     * @return the page of matching ids
+     */
+    public IdPage searchIndex(Query query, Filter filter, Sort sort, FieldDoc after, int startIndex, int maxHits, String... facetDims) throws IOException {
+        IndexSearcher searcher = acquireSearcher();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            int n = (int)Math.max(1L, Math.min((long)startIndex + (long)maxHits, (long)reader.maxDoc()));
+            TopFieldCollector topCollector = TopFieldCollector.create(sort, n, after, true, false, false, false);
+
+            // Count facets in the same pass, if requested
+            SortedSetDocValuesReaderState state = (facetDims.length > 0) ? getFacetsState(reader) : null;
+            FacetsCollector facetsCollector = (state != null) ? new FacetsCollector() : null;
+            searcher.search(query, filter, MultiCollector.wrap(topCollector, facetsCollector));
 
-        List<Long> ids = new ArrayList<>();
-        for (ScoreDoc hit : results.scoreDocs) {
-            Document d = searcher.doc(hit.doc);
-            ids.add(Long.valueOf(d.get(ID_FIELD)));
+            Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+            if (facetsCollector != null) {
+                Facets facetCounts = new SortedSetDocValuesFacetCounts(state, facetsCollector);
+                for (String dim : facetDims) {
+                    Map<String, Integer> counts = new LinkedHashMap<>();
+                    FacetResult result = getTopChildren(facetCounts, dim);
+                    if (result != null) {
+                        for (LabelAndValue labelValue : result.labelValues) {
+                            counts.put(labelValue.label, labelValue.value.intValue());
+                        }
+                    }
+                    facets.put(dim, counts);
+                }
+            }
+
+            TopDocs docs = topCollector.topDocs();
+            NumericDocValues idValues = MultiDocValues.getNumericValues(reader, ID_FIELD);
+            int from = Math.min(startIndex, docs.scoreDocs.length);
+            if (idValues == null || from == docs.scoreDocs.length) {
+                return new IdPage(new int[0], docs.totalHits, null, facets);
+            }
+
+            int[] ids = new int[docs.scoreDocs.length - from];
+            for (int x = 0; x < ids.length; x++) {
+                ids[x] = (int)idValues.get(docs.scoreDocs[from + x].doc);
+            }
+            return new IdPage(ids, docs.totalHits, (FieldDoc)docs.scoreDocs[docs.scoreDocs.length - 1], facets);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    /**
+     * Returns the facets state of the given reader, or null if the index has no facets.
+     * <p>
+     * The state is costly to compute, and is thus cached until a new reader is opened
+     *
+     * @param reader the reader to return the facets state for
+     * @return the facets state of the given reader
+     */
+    protected synchronized SortedSetDocValuesReaderState getFacetsState(IndexReader reader) throws IOException {
+        if (getFacetsConfig() == null) {
+            return null;
+        }
+        if (facetsReader != reader) {
+            String field = FacetsConfig.DEFAULT_INDEX_FIELD_NAME;
+            facetsState = (MultiDocValues.getSortedSetValues(reader, field) == null)
+                    ? null
+                    : new SortedSetDocValuesReaderState(reader, field);
+            facetsReader = reader;
+        }
+        return facetsState;
+    }
+
+    /**
+     * Returns the top values of the given facet dimension, or null if the dimension has not been indexed
+     *
+     * @param facets the facet counts
+     * @param dim the facet dimension
+     * @return the top values of the given facet dimension
+     */
+    private FacetResult getTopChildren(Facets facets, String dim) throws IOException {
+        try {
+            return facets.getTopChildren(MAX_FACET_VALUES, dim);
+        } catch (IllegalArgumentException e) {
+            // The dimension has not been indexed for any documents
+            return null;
         }
-        return ids;
     }
-}
 
+    /**
+     * Defines an id range, [fromId, toId), used for partitioning entities
+     */
+    public static class IdRange {
+        final int fromId;
+        final int toId;
+
+        /**
+         * Constructor
+         * @param fromId the first id of the range (inclusive)
+         * @param toId the last id of the range (exclusive)
+         */
+        public IdRange(int fromId, int toId) {
+            this.fromId = fromId;
+            this.toId = toId;
+        }
+
+        public int getFromId() {
+            return fromId;
+        }
+
+        public int getToId() {
+            return toId;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + fromId + ", " + toId + ")";
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import com.spatial4j.core.shape.Shape;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.spatial.prefix.RecursivePrefixTreeStrategy;
+import org.apache.lucene.spatial.prefix.tree.SpatialPrefixTree;
+import org.apache.lucene.spatial.query.SpatialArgs;
+
+/**
+ * A recursive prefix tree strategy, where the precision used for indexing a shape
+ * is chosen from the size of the shape.
+ * <p>
+ * The distance error is computed as the distErrPct fraction of the shape size,
+ * but never finer than the given minimum distance error. This way, points and
+ * small shapes are not indexed to the full depth of the grid, and large polygons
+ * and long polylines do not expand into huge numbers of prefix terms.
+ */
+public class AdaptiveSpatialStrategy extends RecursivePrefixTreeStrategy {
+
+    final double minDistErr;
+
+    /**
+     * Constructor
+     * @param grid the spatial prefix tree
+     * @param fieldName the field name
+     * @param distErrPct the fraction of the shape size used as distance error
+     * @param minDistErr the minimum distance error in degrees
+     */
+    public AdaptiveSpatialStrategy(SpatialPrefixTree grid, String fieldName, double distErrPct, double minDistErr) {
+        super(grid, fieldName);
+        this.minDistErr = minDistErr;
+        setDistErrPct(distErrPct);
+    }
+
+    /**
+     * Returns the distance error, in degrees, used for indexing the given shape
+     * @param shape the shape
+     * @return the distance error to use for the shape
+     */
+    public double getDistErr(Shape shape) {
+        double distErr = SpatialArgs.calcDistanceFromErrPct(shape, getDistErrPct(), getSpatialContext());
+        return Math.max(minDistErr, distErr);
+    }
+
+    /**
+     * Returns the level of the prefix tree that the given shape is indexed to
+     * @param shape the shape
+     * @return the grid level used for the shape
+     */
+    public int getLevel(Shape shape) {
+        return getGrid().getLevelForDistance(getDistErr(shape));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Field[] createIndexableFields(Shape shape) {
+        return createIndexableFields(shape, getDistErr(shape));
+    }
+
+    /******** Getters and setters *********/
+
+    public double getMinDistErr() {
+        return minDistErr;
+    }
+}
@@ -0,0 +1,56 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.MergePolicy;
+
+import java.io.IOException;
+
+/**
+ * A concurrent merge scheduler that runs merges in low-priority background
+ * threads, and registers the merge activity in the index statistics
+ */
+public class BackgroundMergeScheduler extends ConcurrentMergeScheduler {
+
+    final IndexStats indexStats;
+
+    /**
+     * Constructor
+     * @param indexStats the index statistics to update
+     * @param maxMergeCount the max number of merges that may be pending before indexing threads are stalled
+     * @param maxThreadCount the max number of merge threads
+     */
+    public BackgroundMergeScheduler(IndexStats indexStats, int maxMergeCount, int maxThreadCount) {
+        this.indexStats = indexStats;
+        setMaxMergesAndThreads(maxMergeCount, maxThreadCount);
+        setMergeThreadPriority(Thread.MIN_PRIORITY);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doMerge(MergePolicy.OneMerge merge) throws IOException {
+        long t0 = System.currentTimeMillis();
+        indexStats.mergeStarted();
+        try {
+            super.doMerge(merge);
+        } finally {
+            indexStats.mergeEnded(System.currentTimeMillis() - t0);
+        }
+    }
+}
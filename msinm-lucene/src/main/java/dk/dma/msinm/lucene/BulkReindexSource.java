@@ -0,0 +1,64 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import dk.dma.msinm.lucene.AbstractLuceneIndex.IdRange;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The source of the entities used when re-creating an index via a parallel, partitioned bulk re-index.
+ * <p>
+ * Indexes that support bulk re-indexing return a source from
+ * {@linkplain AbstractLuceneIndex#getBulkReindexSource()}.
+ *
+ * @param <T> the type of the indexed entities
+ */
+public interface BulkReindexSource<T> {
+
+    /**
+     * Returns the id partitions to index
+     * @return the id partitions to index
+     */
+    List<IdRange> getPartitions();
+
+    /**
+     * Streams the entities with ids in the given id range to the consumer.
+     * <p>
+     * Called concurrently from the bulk re-indexing worker threads, so implementations
+     * should not hold more than a small number of entities in memory at a time.
+     *
+     * @param idRange the id range
+     * @param consumer the consumer of the entities
+     */
+    void streamEntities(IdRange idRange, Consumer<T> consumer);
+
+    /**
+     * Returns the container-managed executor service used for running the worker threads,
+     * which typically perform blocking database and file I/O
+     *
+     * @return the container-managed executor service used for running the worker threads
+     */
+    ManagedExecutorService getExecutor();
+
+    /**
+     * Returns the number of worker threads
+     * @return the number of worker threads
+     */
+    int getThreadCount();
+}
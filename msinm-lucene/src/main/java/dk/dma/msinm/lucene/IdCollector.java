@@ -0,0 +1,99 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A non-scoring Lucene collector that collects the entity ids of the matching
+ * documents from the numeric doc values of the id field.
+ * <p>
+ * Compared to loading the stored id field of each hit, this avoids a stored-field
+ * decompression per hit, and the ids are gathered in a primitive int array.
+ */
+public class IdCollector extends Collector {
+
+    final String idField;
+    final int maxHits;
+    NumericDocValues idValues;
+    int[] ids = new int[64];
+    int count;
+
+    /**
+     * Constructor
+     * @param idField the name of the numeric doc values id field
+     * @param maxHits the max number of ids to collect
+     */
+    public IdCollector(String idField, int maxHits) {
+        this.idField = idField;
+        this.maxHits = maxHits;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+        // Scores are not used
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void collect(int doc) throws IOException {
+        if (idValues == null || count >= maxHits) {
+            return;
+        }
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length << 1);
+        }
+        ids[count++] = (int) idValues.get(doc);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+        // Null if no document of the segment has the id doc values
+        idValues = context.reader().getNumericDocValues(idField);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return true;
+    }
+
+    /**
+     * Returns the collected ids
+     * @return the collected ids
+     */
+    public IdSet getIds() {
+        int[] result = Arrays.copyOf(ids, count);
+        Arrays.sort(result);
+        return new IdSet(result);
+    }
+}
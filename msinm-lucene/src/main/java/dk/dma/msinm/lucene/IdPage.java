@@ -0,0 +1,100 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import org.apache.lucene.search.FieldDoc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A sorted page of entity ids resulting from a Lucene search, along with
+ * the total number of hits.
+ * <p>
+ * The last document of the page can be used for fetching the next page
+ * via {@code IndexSearcher.searchAfter()}.
+ */
+public class IdPage {
+
+    final int[] ids;
+    final int total;
+    final FieldDoc lastDoc;
+    final Map<String, Map<String, Integer>> facets;
+
+    /**
+     * Constructor
+     * @param ids the ids of the page in sort order
+     * @param total the total number of hits
+     * @param lastDoc the last document of the page, or null if the page is empty
+     * @param facets the hit counts of the facet values, per facet dimension
+     */
+    IdPage(int[] ids, int total, FieldDoc lastDoc, Map<String, Map<String, Integer>> facets) {
+        this.ids = ids;
+        this.total = total;
+        this.lastDoc = lastDoc;
+        this.facets = facets;
+    }
+
+    /**
+     * Returns the ids of the page in sort order
+     * @return the ids of the page in sort order
+     */
+    public List<Integer> getIds() {
+        return Arrays.stream(ids).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the number of ids in the page
+     * @return the number of ids in the page
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns the total number of hits
+     * @return the total number of hits
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the last document of the page, or null if the page is empty
+     * @return the last document of the page
+     */
+    public FieldDoc getLastDoc() {
+        return lastDoc;
+    }
+
+    /**
+     * Returns the hit counts of the facet values, per facet dimension
+     * @return the hit counts of the facet values, per facet dimension
+     */
+    public Map<String, Map<String, Integer>> getFacets() {
+        return facets;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "IdPage{size=" + ids.length + ", total=" + total + "}";
+    }
+}
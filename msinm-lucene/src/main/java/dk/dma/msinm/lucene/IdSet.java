@@ -0,0 +1,85 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A compact, immutable set of entity ids backed by a sorted primitive int array
+ */
+public class IdSet {
+
+    final int[] ids;
+
+    /**
+     * Constructor
+     * @param ids the ids, which must be sorted in ascending order and contain no duplicates
+     */
+    IdSet(int[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Returns the number of ids in the set
+     * @return the number of ids in the set
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns if the set is empty
+     * @return if the set is empty
+     */
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    /**
+     * Returns if the set contains the given id
+     * @param id the id to check
+     * @return if the set contains the given id
+     */
+    public boolean contains(int id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * Returns a copy of the ids as a sorted array
+     * @return a copy of the ids as a sorted array
+     */
+    public int[] toArray() {
+        return ids.clone();
+    }
+
+    /**
+     * Returns the ids as a sorted list, e.g. for use in a JPA "in" predicate
+     * @return the ids as a sorted list
+     */
+    public List<Integer> toList() {
+        return Arrays.stream(ids).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "IdSet{size=" + ids.length + "}";
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import dk.dma.msinm.common.vo.JsonSerializable;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports index maintenance statistics of a Lucene index, such as
+ * the number of segments and the background merge activity.
+ * <p>
+ * The merge counters are updated concurrently by the merge threads.
+ * Callers are handed snapshots, see {@linkplain #snapshot()}, rather than the live instance.
+ */
+public class IndexStats implements JsonSerializable {
+
+    int segmentCount;
+    int docCount;
+    int deletedDocCount;
+    boolean pendingMerges;
+    final AtomicInteger runningMerges = new AtomicInteger();
+    final AtomicInteger mergeCount = new AtomicInteger();
+    final AtomicLong totalMergeTime = new AtomicLong();
+    volatile long lastMergeTime;
+    volatile Date lastMergeDate;
+
+    /**
+     * Registers that a merge has started
+     */
+    public void mergeStarted() {
+        runningMerges.incrementAndGet();
+    }
+
+    /**
+     * Registers that a merge has ended
+     * @param time the time of the merge in ms
+     */
+    public void mergeEnded(long time) {
+        runningMerges.decrementAndGet();
+        mergeCount.incrementAndGet();
+        totalMergeTime.addAndGet(time);
+        lastMergeTime = time;
+        lastMergeDate = new Date();
+    }
+
+    /**
+     * Returns a new instance with a snapshot of the merge statistics. The
+     * index statistics of the snapshot, e.g. the segment count, are left to the caller
+     * @return a snapshot of the merge statistics
+     */
+    public IndexStats snapshot() {
+        IndexStats snapshot = new IndexStats();
+        snapshot.runningMerges.set(runningMerges.get());
+        snapshot.mergeCount.set(mergeCount.get());
+        snapshot.totalMergeTime.set(totalMergeTime.get());
+        snapshot.lastMergeTime = lastMergeTime;
+        snapshot.lastMergeDate = lastMergeDate;
+        return snapshot;
+    }
+
+    /**
+     * Returns the average merge time in ms
+     * @return the average merge time in ms
+     */
+    public long getAverageMergeTime() {
+        int count = mergeCount.get();
+        return count == 0 ? 0 : totalMergeTime.get() / count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "IndexStats{" +
+                "segmentCount=" + segmentCount +
+                ", docCount=" + docCount +
+                ", deletedDocCount=" + deletedDocCount +
+                ", pendingMerges=" + pendingMerges +
+                ", runningMerges=" + runningMerges +
+                ", mergeCount=" + mergeCount +
+                ", totalMergeTime=" + totalMergeTime +
+                '}';
+    }
+
+    /******** Getters and setters *********/
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+    }
+
+    public int getDocCount() {
+        return docCount;
+    }
+
+    public void setDocCount(int docCount) {
+        this.docCount = docCount;
+    }
+
+    public int getDeletedDocCount() {
+        return deletedDocCount;
+    }
+
+    public void setDeletedDocCount(int deletedDocCount) {
+        this.deletedDocCount = deletedDocCount;
+    }
+
+    public boolean isPendingMerges() {
+        return pendingMerges;
+    }
+
+    public void setPendingMerges(boolean pendingMerges) {
+        this.pendingMerges = pendingMerges;
+    }
+
+    public int getRunningMerges() {
+        return runningMerges.get();
+    }
+
+    public int getMergeCount() {
+        return mergeCount.get();
+    }
+
+    public long getTotalMergeTime() {
+        return totalMergeTime.get();
+    }
+
+    public long getLastMergeTime() {
+        return lastMergeTime;
+    }
+
+    public Date getLastMergeDate() {
+        return lastMergeDate;
+    }
+}
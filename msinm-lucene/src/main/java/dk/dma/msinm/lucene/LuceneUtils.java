@@ -18,6 +18,10 @@ package dk.dma.msinm.lucene;
 import com.spatial4j.core.context.jts.JtsSpatialContext;
 import com.spatial4j.core.context.jts.JtsSpatialContextFactory;
 import com.spatial4j.core.io.jts.JtsWktShapeParser;
+import com.spatial4j.core.shape.Shape;
+import com.spatial4j.core.shape.jts.JtsGeometry;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.util.Version;
 
@@ -81,4 +85,26 @@ public class LuceneUtils {
                 .replaceAll(" or ", " OR ")
                 .replaceAll(" and ", " AND ");
     }
+
+    /**
+     * Returns a simplified version of the shape, where vertices closer than
+     * the given tolerance are removed whilst preserving the topology.
+     * <p>
+     * Only polygons and polylines are simplified. Other shapes are returned as is.
+     *
+     * @param shape the shape to simplify
+     * @param tolerance the distance tolerance in degrees
+     * @return the simplified shape
+     */
+    public static Shape simplify(Shape shape, double tolerance) {
+        if (!(shape instanceof JtsGeometry) || tolerance <= 0) {
+            return shape;
+        }
+        Geometry geom = ((JtsGeometry) shape).getGeom();
+        Geometry simplified = TopologyPreservingSimplifier.simplify(geom, tolerance);
+        if (simplified.isEmpty() || simplified.getNumPoints() >= geom.getNumPoints()) {
+            return shape;
+        }
+        return GEO.makeShape(simplified);
+    }
 }
@@ -0,0 +1,223 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.ngram.NGramTokenFilter;
+import org.apache.lucene.analysis.standard.StandardFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Analyzer used for n-gram fields, i.e. fields whose names end with {@code NGRAM_FIELD_SUFFIX}.
+ * <p>
+ * Each token is terminated by {@code END_OF_TOKEN} and split into all of its n-grams between
+ * {@code MIN_GRAM} and {@code MAX_GRAM} characters, which allows infix searches, such as "*buoy*",
+ * and suffix searches, such as "*buoy", to be resolved as plain term lookups rather than
+ * by enumerating the entire term dictionary.
+ * <p>
+ * The n-grams starting at the same character of a token share the same position, and consecutive
+ * start characters have consecutive positions. Hence, infixes longer than {@code MAX_GRAM} can be
+ * matched exactly by a phrase of their overlapping n-grams.
+ */
+public class NGramAnalyzer extends Analyzer {
+
+    public final static String NGRAM_FIELD_SUFFIX   = "_ngram";
+    public final static int MIN_GRAM                = 3;
+    public final static int MAX_GRAM                = 10;
+    public final static char END_OF_TOKEN           = '$';
+
+    // Matches a single-token leading-wildcard search, such as "*buoy*" or "*buoy"
+    final static Pattern INFIX_PATTERN = Pattern.compile("^\\*+([\\p{L}\\p{N}]+)(\\**)$");
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+        StandardTokenizer source = new StandardTokenizer(LuceneUtils.LUCENE_VERSION, reader);
+        TokenStream result = new StandardFilter(LuceneUtils.LUCENE_VERSION, source);
+        result = new LowerCaseFilter(LuceneUtils.LUCENE_VERSION, result);
+        result = new EndOfTokenFilter(result);
+        result = new NGramTokenFilter(LuceneUtils.LUCENE_VERSION, result, MIN_GRAM, MAX_GRAM);
+        result = new NGramPositionFilter(result);
+        return new TokenStreamComponents(source, result);
+    }
+
+    /**
+     * Returns an analyzer that uses an n-gram analyzer for n-gram fields,
+     * and the given default analyzer for all other fields
+     *
+     * @param defaultAnalyzer the analyzer to use for all non-n-gram fields
+     * @return the wrapped analyzer
+     */
+    public static Analyzer wrap(Analyzer defaultAnalyzer) {
+        Analyzer ngramAnalyzer = new NGramAnalyzer();
+        return new AnalyzerWrapper(PER_FIELD_REUSE_STRATEGY) {
+            @Override
+            protected Analyzer getWrappedAnalyzer(String fieldName) {
+                return fieldName.endsWith(NGRAM_FIELD_SUFFIX) ? ngramAnalyzer : defaultAnalyzer;
+            }
+
+            @Override
+            protected TokenStreamComponents wrapComponents(String fieldName, TokenStreamComponents components) {
+                return components;
+            }
+        };
+    }
+
+    /**
+     * Rewrites all leading-wildcard queries of the given query into term lookups in the n-gram field.
+     * <p>
+     * An infix search, such as "*buoy*", is rewritten into an infix query, and a suffix search,
+     * such as "*buoy", into an infix query for the suffix terminated by {@code END_OF_TOKEN}.
+     * Wildcard queries that cannot be rewritten, e.g. because the search term is shorter than
+     * {@code MIN_GRAM} characters, are left untouched.
+     *
+     * @param query the query to rewrite
+     * @param ngramField the n-gram field to use for infix searches
+     * @return the rewritten query
+     */
+    public static Query rewriteInfixQuery(Query query, String ngramField) {
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery result = new BooleanQuery(booleanQuery.isCoordDisabled());
+            result.setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            result.setBoost(booleanQuery.getBoost());
+            for (BooleanClause clause : booleanQuery) {
+                result.add(rewriteInfixQuery(clause.getQuery(), ngramField), clause.getOccur());
+            }
+            return result;
+
+        } else if (query instanceof WildcardQuery) {
+            Matcher m = INFIX_PATTERN.matcher(((WildcardQuery) query).getTerm().text());
+            if (m.matches() && m.group(1).length() >= MIN_GRAM) {
+                String infix = m.group(1).toLowerCase();
+                return infixQuery(ngramField, m.group(2).isEmpty() ? infix + END_OF_TOKEN : infix);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Returns a query matching the given infix within a single token of the n-gram field.
+     * <p>
+     * Infixes longer than {@code MAX_GRAM} are matched by a phrase of all their overlapping
+     * n-grams of length {@code MAX_GRAM}, at consecutive positions, i.e. start characters, of the same token
+     *
+     * @param ngramField the n-gram field
+     * @param infix the infix to match
+     * @return the infix query
+     */
+    public static Query infixQuery(String ngramField, String infix) {
+        if (infix.length() <= MAX_GRAM) {
+            return new TermQuery(new Term(ngramField, infix));
+        }
+        PhraseQuery query = new PhraseQuery();
+        for (int x = 0; x + MAX_GRAM <= infix.length(); x++) {
+            query.add(new Term(ngramField, infix.substring(x, x + MAX_GRAM)), x);
+        }
+        return query;
+    }
+
+    /**
+     * Terminates each token with {@code END_OF_TOKEN}, so that suffixes can be matched as infixes
+     */
+    static final class EndOfTokenFilter extends TokenFilter {
+
+        final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        EndOfTokenFilter(TokenStream input) {
+            super(input);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            termAtt.append(END_OF_TOKEN);
+            return true;
+        }
+    }
+
+    /**
+     * Assigns the positions of the n-grams produced by the {@code NGramTokenFilter}.
+     * <p>
+     * The n-gram filter emits the n-grams of a token ordered by start character and then by length,
+     * all at the position of the token. This filter moves the n-grams of each subsequent start character
+     * to the next position, and leaves a gap of {@code MAX_GRAM} positions between tokens.
+     */
+    static final class NGramPositionFilter extends TokenFilter {
+
+        final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+        final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+        int prevLength;
+
+        NGramPositionFilter(TokenStream input) {
+            super(input);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (!input.incrementToken()) {
+                return false;
+            }
+            int length = Character.codePointCount(termAtt.buffer(), 0, termAtt.length());
+            if (posIncAtt.getPositionIncrement() > 0) {
+                // The first n-gram of a new token
+                posIncAtt.setPositionIncrement(posIncAtt.getPositionIncrement() + MAX_GRAM);
+            } else if (length <= prevLength) {
+                // The first n-gram of the next start character of the token
+                posIncAtt.setPositionIncrement(1);
+            }
+            prevLength = length;
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            prevLength = 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import dk.dma.msinm.common.vo.JsonSerializable;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reports the progress and throughput of a complete re-indexing of a Lucene index.
+ * <p>
+ * The counters are updated concurrently by the re-indexing worker threads.
+ */
+public class ReindexStatus implements JsonSerializable {
+
+    Date startTime;
+    Date endTime;
+    int totalCount;
+    int partitionCount;
+    final AtomicInteger indexedCount = new AtomicInteger();
+    final AtomicInteger indexedPartitionCount = new AtomicInteger();
+    String error;
+
+    /**
+     * Flags that the re-indexing has started
+     */
+    public void start() {
+        startTime = new Date();
+    }
+
+    /**
+     * Flags that the re-indexing has ended
+     */
+    public void end() {
+        endTime = new Date();
+    }
+
+    /**
+     * Registers that an entity has been indexed
+     */
+    public void entityIndexed() {
+        indexedCount.incrementAndGet();
+    }
+
+    /**
+     * Registers that the given number of entities have been indexed
+     * @param count the number of indexed entities
+     */
+    public void entitiesIndexed(int count) {
+        indexedCount.addAndGet(count);
+    }
+
+    /**
+     * Registers that a partition has been indexed
+     */
+    public void partitionIndexed() {
+        indexedPartitionCount.incrementAndGet();
+    }
+
+    /**
+     * Returns if the re-indexing is in progress
+     * @return if the re-indexing is in progress
+     */
+    public boolean isRunning() {
+        return startTime != null && endTime == null;
+    }
+
+    /**
+     * Returns the elapsed time of the re-indexing in milliseconds
+     * @return the elapsed time of the re-indexing in milliseconds
+     */
+    public long getElapsedTime() {
+        if (startTime == null) {
+            return 0;
+        }
+        return (endTime == null ? System.currentTimeMillis() : endTime.getTime()) - startTime.getTime();
+    }
+
+    /**
+     * Returns the number of indexed entities per second
+     * @return the number of indexed entities per second
+     */
+    public double getThroughput() {
+        long elapsed = getElapsedTime();
+        return elapsed == 0 ? 0.0 : 1000.0 * indexedCount.get() / elapsed;
+    }
+
+    /**
+     * Returns the progress of the re-indexing in percent, if the total count is known
+     * @return the progress of the re-indexing in percent
+     */
+    public Integer getProgress() {
+        if (endTime != null) {
+            return 100;
+        }
+        return totalCount == 0 ? null : Math.min(100, 100 * indexedCount.get() / totalCount);
+    }
+
+    /******** Getters and setters *********/
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(int totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        this.partitionCount = partitionCount;
+    }
+
+    public int getIndexedCount() {
+        return indexedCount.get();
+    }
+
+    public int getIndexedPartitionCount() {
+        return indexedPartitionCount.get();
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,310 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.lucene;
+
+import com.spatial4j.core.context.SpatialContext;
+import com.spatial4j.core.distance.DistanceUtils;
+import com.spatial4j.core.shape.Shape;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.complexPhrase.ComplexPhraseQueryParser;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.spatial.prefix.tree.GeohashPrefixTree;
+import org.apache.lucene.spatial.prefix.tree.SpatialPrefixTree;
+import org.apache.lucene.spatial.query.SpatialArgs;
+import org.apache.lucene.spatial.query.SpatialOperation;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Simple benchmarks of the Lucene index set-up.
+ * <p>
+ * The timings are logged rather than asserted, since they depend on the hardware.
+ * The benchmarks are skipped by default, and are run by setting the {@code benchmark} system property:
+ * <pre>
+ *     mvn test -Dtest=LuceneBenchmarkTest -Dbenchmark=true
+ * </pre>
+ */
+public class LuceneBenchmarkTest {
+
+    static final Logger log = LoggerFactory.getLogger(LuceneBenchmarkTest.class);
+
+    final static String FIELD = "q";
+    final static int DOC_COUNT = 20000;
+    final static int ITERATIONS = 20;
+    final static int SHAPE_COUNT = 5000;
+    final static String[] SYLLABLES = { "buoy", "light", "wreck", "nav", "ig", "ation", "chart", "sea", "mark", "ex", "er", "cise", "fir", "ing", "haz", "ard" };
+
+    /**
+     * Creates an index of random text, with the text also indexed in an n-gram field
+     * @param directory the index directory
+     * @return the index directory
+     */
+    private Directory createTextIndex(Directory directory) throws IOException {
+        IndexWriterConfig iwc = new IndexWriterConfig(
+                LuceneUtils.LUCENE_VERSION,
+                NGramAnalyzer.wrap(new StandardAnalyzer(LuceneUtils.LUCENE_VERSION)));
+        Random random = new Random(42);
+        try (IndexWriter writer = new IndexWriter(directory, iwc)) {
+            for (int x = 0; x < DOC_COUNT; x++) {
+                StringBuilder text = new StringBuilder();
+                for (int w = 0; w < 20; w++) {
+                    for (int s = 0; s < 1 + random.nextInt(3); s++) {
+                        text.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                    }
+                    text.append(random.nextInt(1000)).append(' ');
+                }
+                Document doc = new Document();
+                doc.add(new PhraseSearchLuceneField(FIELD, text.toString()));
+                doc.add(new TextField(FIELD + NGramAnalyzer.NGRAM_FIELD_SUFFIX, text.toString(), Field.Store.NO));
+                writer.addDocument(doc);
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Skips the calling benchmark unless the {@code benchmark} system property is set
+     */
+    private void assumeBenchmarkEnabled() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    /**
+     * Runs the query a number of times and returns the average search time in ms
+     */
+    private double time(IndexSearcher searcher, Query query, int expectedHits) throws IOException {
+        long t0 = System.nanoTime();
+        for (int x = 0; x < ITERATIONS; x++) {
+            TotalHitCountCollector collector = new TotalHitCountCollector();
+            searcher.search(query, collector);
+            if (expectedHits >= 0) {
+                assertEquals(expectedHits, collector.getTotalHits());
+            }
+        }
+        return (System.nanoTime() - t0) / 1000000.0 / ITERATIONS;
+    }
+
+    @Test
+    public void benchmarkInfixSearch() throws IOException, ParseException {
+        assumeBenchmarkEnabled();
+        Directory directory = createTextIndex(new RAMDirectory());
+        try (IndexReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+
+            for (String search : new String[] { "*uoy*", "*ationchar*", "*wreck*" }) {
+                QueryParser parser = new ComplexPhraseQueryParser(
+                        LuceneUtils.LUCENE_VERSION,
+                        FIELD,
+                        new StandardAnalyzer(LuceneUtils.LUCENE_VERSION));
+                parser.setAllowLeadingWildcard(true);
+                Query wildcardQuery = parser.parse(search);
+                Query ngramQuery = NGramAnalyzer.rewriteInfixQuery(wildcardQuery, FIELD + NGramAnalyzer.NGRAM_FIELD_SUFFIX);
+
+                // Warm up and check that the two queries yield the same hits
+                TotalHitCountCollector collector = new TotalHitCountCollector();
+                searcher.search(wildcardQuery, collector);
+                int hits = collector.getTotalHits();
+                time(searcher, ngramQuery, hits);
+
+                log.info(String.format(
+                        "Infix search %s: %d hits, wildcard %.2f ms, n-gram %.2f ms",
+                        search, hits, time(searcher, wildcardQuery, hits), time(searcher, ngramQuery, hits)));
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkDirectories() throws IOException, ParseException {
+        assumeBenchmarkEnabled();
+        QueryParser parser = new QueryParser(
+                LuceneUtils.LUCENE_VERSION,
+                FIELD,
+                new StandardAnalyzer(LuceneUtils.LUCENE_VERSION));
+        Query[] queries = { parser.parse("buoy*"), parser.parse("light AND wreck"), parser.parse("\"sea mark\"") };
+
+        for (AbstractLuceneIndex.DirectoryType type : AbstractLuceneIndex.DirectoryType.values()) {
+            Path folder = Files.createTempDirectory("lucene-benchmark");
+            try (Directory directory = AbstractLuceneIndex.openDirectory(type, folder)) {
+                long t0 = System.nanoTime();
+                createTextIndex(directory);
+                double indexTime = (System.nanoTime() - t0) / 1000000.0;
+
+                try (IndexReader reader = DirectoryReader.open(directory)) {
+                    IndexSearcher searcher = new IndexSearcher(reader);
+                    double searchTime = 0;
+                    for (Query query : queries) {
+                        time(searcher, query, -1); // warm up
+                        searchTime += time(searcher, query, -1);
+                    }
+                    log.info(String.format(
+                            "Directory %s: indexing %.0f ms, search %.2f ms",
+                            type, indexTime, searchTime / queries.length));
+                }
+            } finally {
+                Files.walk(folder)
+                        .sorted(Comparator.reverseOrder())
+                        .forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Converts the distance in km to degrees
+     */
+    private static double km2deg(double km) {
+        return DistanceUtils.dist2Degrees(km, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    }
+
+    /**
+     * Creates a random mix of geometries in Danish waters, resembling the messages:
+     * mostly points, some circles, large firing area polygons and long cable polylines
+     * @param random the random generator
+     * @param count the number of geometries
+     * @return the geometries
+     */
+    private List<Shape> createGeometries(Random random, int count) throws java.text.ParseException {
+        List<Shape> shapes = new ArrayList<>();
+        for (int x = 0; x < count; x++) {
+            double lon = 8.0 + random.nextDouble() * 7.0;
+            double lat = 54.5 + random.nextDouble() * 3.3;
+            int type = random.nextInt(10);
+            if (type < 6) {
+                shapes.add(LuceneUtils.GEO.makePoint(lon, lat));
+
+            } else if (type < 7) {
+                shapes.add(LuceneUtils.GEO.makeCircle(lon, lat, km2deg(1.0 + random.nextDouble() * 9.0)));
+
+            } else if (type < 9) {
+                // A star-shaped polygon, which is never self-intersecting
+                int vertices = 30 + random.nextInt(270);
+                double radius = km2deg(2.0 + random.nextDouble() * 18.0);
+                StringBuilder wkt = new StringBuilder("POLYGON ((");
+                String first = null;
+                for (int v = 0; v < vertices; v++) {
+                    double angle = 2.0 * Math.PI * v / vertices;
+                    double r = radius * (0.7 + random.nextDouble() * 0.3);
+                    String coord = String.format("%f %f", lon + r * Math.cos(angle) / Math.cos(Math.toRadians(lat)), lat + r * Math.sin(angle));
+                    first = (first == null) ? coord : first;
+                    wkt.append(coord).append(", ");
+                }
+                shapes.add(LuceneUtils.GEO.readShapeFromWkt(wkt.append(first).append("))").toString()));
+
+            } else {
+                // A random walk polyline
+                int vertices = 50 + random.nextInt(450);
+                double step = km2deg(0.2);
+                double heading = random.nextDouble() * 2.0 * Math.PI;
+                StringBuilder wkt = new StringBuilder("LINESTRING (");
+                for (int v = 0; v < vertices; v++) {
+                    wkt.append(String.format("%f %f", lon, lat)).append(v < vertices - 1 ? ", " : ")");
+                    heading += (random.nextDouble() - 0.5) * 0.5;
+                    lon += step * Math.cos(heading) / Math.cos(Math.toRadians(lat));
+                    lat += step * Math.sin(heading);
+                }
+                shapes.add(LuceneUtils.GEO.readShapeFromWkt(wkt.toString()));
+            }
+        }
+        return shapes;
+    }
+
+    /**
+     * Indexes the shapes using the given strategy, simplifying the shapes with the given tolerance
+     */
+    private void createSpatialIndex(Directory directory, AdaptiveSpatialStrategy strategy, List<Shape> shapes, double tolerance) throws IOException {
+        IndexWriterConfig iwc = new IndexWriterConfig(LuceneUtils.LUCENE_VERSION, null);
+        try (IndexWriter writer = new IndexWriter(directory, iwc)) {
+            for (Shape shape : shapes) {
+                Document doc = new Document();
+                for (IndexableField f : strategy.createIndexableFields(LuceneUtils.simplify(shape, tolerance))) {
+                    doc.add(f);
+                }
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+    }
+
+    @Test
+    public void benchmarkSpatialPrecision() throws IOException, java.text.ParseException {
+        assumeBenchmarkEnabled();
+        Random random = new Random(42);
+        List<Shape> shapes = createGeometries(random, SHAPE_COUNT);
+        List<Shape> queryShapes = new ArrayList<>();
+        for (int x = 0; x < 20; x++) {
+            double lon = 8.0 + random.nextDouble() * 7.0;
+            double lat = 54.5 + random.nextDouble() * 3.3;
+            double size = km2deg(5.0 + random.nextDouble() * 45.0);
+            queryShapes.add(LuceneUtils.GEO.makeRectangle(lon, lon + size, lat, lat + size));
+        }
+
+        // The set-ups to compare: name, distErrPct, min. distance error and simplification tolerance
+        SpatialPrefixTree grid = new GeohashPrefixTree(SpatialContext.GEO, 11);
+        Object[][] setups = {
+                { "2.5%, no min. precision", 0.025, 0.0, 0.0 },
+                { "2.5%, 5 m min. precision", 0.025, km2deg(0.005), 0.0 },
+                { "10%, 5 m min. precision", 0.1, km2deg(0.005), 0.0 },
+                { "2.5%, simplified 50 m", 0.025, km2deg(0.05), km2deg(0.05) }
+        };
+
+        for (Object[] setup : setups) {
+            AdaptiveSpatialStrategy strategy = new AdaptiveSpatialStrategy(grid, "location", (Double)setup[1], (Double)setup[2]);
+            RAMDirectory directory = new RAMDirectory();
+            long t0 = System.nanoTime();
+            createSpatialIndex(directory, strategy, shapes, (Double)setup[3]);
+            double indexTime = (System.nanoTime() - t0) / 1000000.0;
+
+            try (IndexReader reader = DirectoryReader.open(directory)) {
+                IndexSearcher searcher = new IndexSearcher(reader);
+                double searchTime = 0;
+                for (Shape queryShape : queryShapes) {
+                    Query query = new ConstantScoreQuery(strategy.makeFilter(new SpatialArgs(SpatialOperation.Intersects, queryShape)));
+                    time(searcher, query, -1); // warm up
+                    searchTime += time(searcher, query, -1);
+                }
+                log.info(String.format(
+                        "Spatial index %s: indexing %.0f ms, size %d kB, search %.2f ms",
+                        setup[0], indexTime, directory.sizeInBytes() / 1024, searchTime / queryShapes.size()));
+            }
+        }
+    }
+}
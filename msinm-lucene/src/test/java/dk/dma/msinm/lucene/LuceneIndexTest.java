@@ -20,7 +20,14 @@ import dk.dma.msinm.common.db.SqlProducer;
 import dk.dma.msinm.common.sequence.Sequences;
 import dk.dma.msinm.common.settings.Settings;
 import dk.dma.msinm.test.TestResources;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
 import org.jglue.cdiunit.AdditionalClasses;
 import org.jglue.cdiunit.CdiRunner;
 import org.junit.Test;
@@ -29,8 +36,13 @@ import org.junit.runner.RunWith;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import java.io.IOException;
+import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test the Lucene index
@@ -71,4 +83,134 @@ public class LuceneIndexTest {
         assertEquals(4, testLuceneIndex.searchIndex("world or pancake?", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
         assertEquals(2, testLuceneIndex.searchIndex("pan*", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
     }
+
+    @Test
+    public void testInfixSearch() throws IOException, ParseException {
+        indexTestData();
+
+        // Test infix searches resolved via the n-gram field
+        assertEquals(2, testLuceneIndex.searchIndex("*ancak*", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+        assertEquals(3, testLuceneIndex.searchIndex("*ORL*", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+        assertEquals(1, testLuceneIndex.searchIndex("*ancake", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+        assertEquals(1, testLuceneIndex.searchIndex("*ancakes", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+        assertEquals(1, testLuceneIndex.searchIndex("*ello* AND *orld*", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+    }
+
+    @Test
+    public void testLongInfixSearch() throws IOException, ParseException {
+        // Each n-gram of "abcdefghijkl" occurs in the first document, but not within a single word
+        testLuceneIndex.addData("abcdefghijk bcdefghijkl").addData("xabcdefghijklx").addData("xxabcdefghijkl");
+        assertEquals(3, testLuceneIndex.updateLuceneIndex(100, true));
+
+        assertEquals(2, testLuceneIndex.searchIndex("*abcdefghijkl*", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+        assertEquals(1, testLuceneIndex.searchIndex("*abcdefghijkl", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+        assertEquals(1, testLuceneIndex.searchIndex("*bcdefghijk", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+    }
+
+    @Test
+    public void testSortedPagedSearch() throws IOException, ParseException {
+        indexTestData();
+
+        // Test sorted and paged searches with facet counts
+        Sort idSort = new Sort(new SortField("id", SortField.Type.LONG, true));
+        IdPage page = testLuceneIndex.searchIndex(new MatchAllDocsQuery(), null, idSort, 1, 2, TestLuceneIndex.WORD_FACET);
+        assertEquals(4, page.getTotal());
+        assertEquals(2, page.size());
+        assertTrue(page.getIds().get(0) > page.getIds().get(1));
+        assertEquals(Integer.valueOf(3), page.getFacets().get(TestLuceneIndex.WORD_FACET).get("world"));
+        assertEquals(Integer.valueOf(2), page.getFacets().get(TestLuceneIndex.WORD_FACET).get("flat"));
+        page = testLuceneIndex.searchIndex(testLuceneIndex.parseQuery("flat", TestLuceneIndex.SEARCH_FIELD), null, idSort, 0, 10, TestLuceneIndex.WORD_FACET);
+        assertEquals(2, page.size());
+        assertEquals(Integer.valueOf(1), page.getFacets().get(TestLuceneIndex.WORD_FACET).get("world"));
+    }
+
+    @Test
+    public void testIndexStats() throws IOException, ParseException {
+        indexTestData();
+
+        IndexStats stats = testLuceneIndex.getIndexStats();
+        assertEquals(4, stats.getDocCount());
+        assertTrue(stats.getSegmentCount() > 0);
+
+        // Each call returns a new snapshot
+        testLuceneIndex.addData("another flat world");
+        assertEquals(1, testLuceneIndex.updateLuceneIndex(100, true));
+        assertNotSame(stats, testLuceneIndex.getIndexStats());
+        assertEquals(5, testLuceneIndex.getIndexStats().getDocCount());
+        assertEquals(4, stats.getDocCount());
+    }
+
+    @Test
+    public void testResumeIndex() throws IOException, ParseException {
+        indexTestData();
+
+        // Close and re-open the index, and check that it is resumed rather than re-created
+        testLuceneIndex.closeSearcherManager();
+        testLuceneIndex.closeWriter();
+        assertTrue(testLuceneIndex.openIndex());
+        assertEquals(0, testLuceneIndex.updateLuceneIndex(100, true));
+        assertEquals(3, testLuceneIndex.searchIndex("world", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+    }
+
+    @Test
+    public void testCachedFilter() throws IOException, ParseException {
+        indexTestData();
+
+        // Check that cached filters are reused, and dropped when the index is refreshed
+        Filter filter = testLuceneIndex.getCachedFilter("flat", () -> flatFilter());
+        assertSame(filter, testLuceneIndex.getCachedFilter("flat", () -> flatFilter()));
+        assertEquals(2, testLuceneIndex.searchIndex(null, null, filter, 100).size());
+        testLuceneIndex.addData("flat earth");
+        assertEquals(1, testLuceneIndex.updateLuceneIndex(100, true));
+        Filter refreshedFilter = testLuceneIndex.getCachedFilter("flat", () -> flatFilter());
+        assertNotSame(filter, refreshedFilter);
+        assertEquals(3, testLuceneIndex.searchIndex(null, null, refreshedFilter, 100).size());
+    }
+
+    @Test
+    public void testSameUpdatedTimeAcrossBatches() throws IOException, ParseException {
+        // Entities sharing the same updated time must not be skipped at batch boundaries
+        Date updated = new Date();
+        for (int x = 0; x < 5; x++) {
+            testLuceneIndex.addData("buoy " + x, updated);
+        }
+        assertEquals(2, testLuceneIndex.updateLuceneIndex(2, true));
+        assertEquals(2, testLuceneIndex.updateLuceneIndex(2, true));
+        assertEquals(1, testLuceneIndex.updateLuceneIndex(2, true));
+        assertEquals(0, testLuceneIndex.updateLuceneIndex(2, true));
+        assertEquals(5, testLuceneIndex.searchIndex("buoy", TestLuceneIndex.SEARCH_FIELD, null, 100).size());
+    }
+
+    @Test
+    public void testIncompleteIndexNotResumed() throws IOException {
+        // Commits made whilst the index is being re-created are flagged as incomplete
+        testLuceneIndex.reindexInProgress = true;
+        testLuceneIndex.addData("hello world");
+        assertEquals(1, testLuceneIndex.updateLuceneIndex(100, true));
+        testLuceneIndex.closeSearcherManager();
+        testLuceneIndex.closeWriter();
+        assertFalse(testLuceneIndex.openIndex());
+
+        // Once the index has been re-created, it is resumed
+        assertEquals(1, testLuceneIndex.recreateIndex());
+        testLuceneIndex.closeSearcherManager();
+        testLuceneIndex.closeWriter();
+        assertTrue(testLuceneIndex.openIndex());
+    }
+
+    /**
+     * Adds and indexes four test documents
+     */
+    private void indexTestData() {
+        testLuceneIndex
+                .addData("hello world")
+                .addData("the world is flat")
+                .addData("pancakes are flat")
+                .addData("Ergo, the world is a pancake");
+        assertEquals(4, testLuceneIndex.updateLuceneIndex(100, true));
+    }
+
+    private Filter flatFilter() {
+        return new QueryWrapperFilter(new TermQuery(new Term(TestLuceneIndex.SEARCH_FIELD, "flat")));
+    }
 }
@@ -40,6 +40,9 @@ import java.io.IOException;
 import java.text.ParseException;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Largely based on extracts from a SpatialExample Lucene test case:
@@ -85,6 +88,27 @@ public class SpatialLuceneTest  {
         assertDocMatchedIds(indexSearcher, docs, 30);
     }
 
+    @Test
+    public void testAdaptiveSpatialPrecision() throws IOException, ParseException {
+        SpatialPrefixTree grid = new GeohashPrefixTree(ctx, 11);
+        double minDistErr = DistanceUtils.dist2Degrees(0.005, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+        AdaptiveSpatialStrategy adaptiveStrategy = new AdaptiveSpatialStrategy(grid, "myGeoField", 0.025, minDistErr);
+
+        // Points are no longer indexed to the full depth of the grid
+        Shape point = ctx.makePoint(10.0, 56.0);
+        assertTrue(adaptiveStrategy.getLevel(point) < grid.getMaxLevels());
+        assertEquals(grid.getLevelForDistance(minDistErr), adaptiveStrategy.getLevel(point));
+
+        // Large polygons are indexed with a coarser precision than small polygons
+        Shape small = LuceneUtils.GEO.readShapeFromWkt("POLYGON((10 56, 10.01 56, 10.01 56.01, 10 56.01, 10 56))");
+        Shape large = LuceneUtils.GEO.readShapeFromWkt("POLYGON((10 56, 11 56, 11 57, 10 57, 10 56))");
+        assertTrue(adaptiveStrategy.getLevel(large) < adaptiveStrategy.getLevel(small));
+
+        // Simplification removes vertices but leaves points untouched
+        Shape line = LuceneUtils.GEO.readShapeFromWkt("LINESTRING(10 56, 10.5 56.00001, 11 56)");
+        assertTrue(LuceneUtils.simplify(line, 0.001).toString().length() < line.toString().length());
+        assertSame(point, LuceneUtils.simplify(point, 0.001));
+    }
 
     private Document newSampleDocument(int id, Shape... shapes) {
         Document doc = new Document();
@@ -18,10 +18,13 @@ package dk.dma.msinm.lucene;
 import com.google.common.io.Files;
 import dk.dma.msinm.common.model.VersionedEntity;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.FacetsConfig;
 
 import javax.ejb.Singleton;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -33,15 +36,25 @@ import java.util.stream.Collectors;
 public class TestLuceneIndex extends AbstractLuceneIndex<TestLuceneIndex.TestEntity> {
 
     final static String SEARCH_FIELD = "q";
+    final static String WORD_FACET = "word";
     static int counter = 0;
 
     List<TestEntity> data = new ArrayList<>();
     Path folder = Files.createTempDir().toPath();
+    FacetsConfig facetsConfig = new FacetsConfig();
+
+    public TestLuceneIndex() {
+        facetsConfig.setMultiValued(WORD_FACET, true);
+    }
 
     public TestLuceneIndex addData(String text) {
+        return addData(text, new Date());
+    }
+
+    public TestLuceneIndex addData(String text, Date updated) {
         TestEntity e = new TestEntity(text);
-        e.setCreated(new Date());
-        e.setUpdated(e.getCreated());
+        e.setCreated(updated);
+        e.setUpdated(updated);
         data.add(e);
         return this;
     }
@@ -52,16 +65,31 @@ public class TestLuceneIndex extends AbstractLuceneIndex<TestLuceneIndex.TestEnt
     }
 
     @Override
-    protected List<TestEntity> findUpdatedEntities(Date fromDate, int maxCount) {
+    protected List<TestEntity> findUpdatedEntities(Date fromDate, Integer fromId, int maxCount) {
         return data.stream()
-                .filter(e -> e.getUpdated()
-                .after(fromDate))
+                .filter(e -> e.getUpdated().after(fromDate) ||
+                        (e.getUpdated().equals(fromDate) && (fromId == null || e.getId() > fromId)))
+                .sorted(Comparator.comparing(TestEntity::getUpdated).thenComparing(TestEntity::getId))
+                .limit(maxCount)
                 .collect(Collectors.toList());
     }
 
+    @Override
+    protected boolean isNGramIndexed(String field) {
+        return SEARCH_FIELD.equals(field);
+    }
+
+    @Override
+    protected FacetsConfig getFacetsConfig() {
+        return facetsConfig;
+    }
+
     @Override
     protected void addEntityToDocument(Document doc, TestEntity entity) {
         addPhraseSearchField(doc, SEARCH_FIELD, entity.toString());
+        Arrays.stream(entity.toString().toLowerCase().split("\\W+"))
+                .distinct()
+                .forEach(word -> addFacetField(doc, WORD_FACET, word));
     }
 
     public static class TestEntity extends VersionedEntity<Integer> {
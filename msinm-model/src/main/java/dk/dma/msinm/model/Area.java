@@ -19,23 +19,35 @@ import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.model.ILocalizable;
 import dk.dma.msinm.common.model.IPreloadable;
 import dk.dma.msinm.common.model.VersionedEntity;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Represents a specific named area, part of an area-hierarchy
  */
 @Entity
+@Cacheable
+@BatchSize(size = 100)
 @NamedQueries({
         @NamedQuery(name  = "Area.searchAreas",
                 query = "select distinct a from Area a left join a.descs d where d.lang = :lang and lower(d.name) like lower(:term) "
                       + "order by LOCATE(lower(:sort), lower(d.name))"),
         @NamedQuery(name  = "Area.findRootAreas",
-                query = "select distinct a from Area a left join fetch a.children where a.parent is null"),
+                query = "select distinct a from Area a left join fetch a.children where a.parent is null",
+                hints = @QueryHint(name = "org.hibernate.cacheable", value = "true")),
         @NamedQuery(name  = "Area.findAreasWithDescs",
-                query = "select distinct a from Area a left join fetch a.descs")
+                query = "select distinct a from Area a left join fetch a.descs"),
+        @NamedQuery(name  = "Area.fetchDescs",
+                query = "select distinct a from Area a left join fetch a.descs where a.id in :ids")
 })
 public class Area extends VersionedEntity<Integer> implements ILocalizable<AreaDesc>, IPreloadable, Comparable<Area> {
 
@@ -44,17 +56,29 @@ public class Area extends VersionedEntity<Integer> implements ILocalizable<AreaD
 
     @OneToMany(mappedBy = "parent", cascade = CascadeType.ALL)
     @OrderBy("sortOrder ASC")
+    @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
     private List<Area> children = new ArrayList<>();
 
     @OneToMany(cascade = CascadeType.ALL)
     private List<Location> locations = new ArrayList<>();
 
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "entity", orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
     List<AreaDesc> descs = new ArrayList<>();
 
     @Column(length = 256)
     String lineage;
 
+    // The ID's of this area and all its ancestors, derived from the lineage.
+    // Used for matching entire area sub-trees via indexed equality predicates
+    @ElementCollection
+    @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+    @CollectionTable(name = "AreaAncestor",
+            joinColumns = @JoinColumn(name = "area_id"),
+            indexes = @Index(name = "AreaAncestor_ancestorId", columnList = "ancestorId"))
+    @Column(name = "ancestorId")
+    Set<Integer> ancestorIds = new HashSet<>();
+
     // The sortOrder is used to sort this area among siblings, and exposed via the Admin UI
     @Column(columnDefinition="DOUBLE default 0.0")
     double sortOrder;
@@ -105,15 +129,26 @@ public class Area extends VersionedEntity<Integer> implements ILocalizable<AreaD
     }
 
     /**
-     * Update the lineage to have the format "/root-id/.../parent-id/id"
-     * @return if the lineage was updated
+     * Update the lineage to have the format "/root-id/.../parent-id/id",
+     * along with the set of ancestor ID's
+     * @return if the lineage or ancestor ID's were updated
      */
     public boolean updateLineage() {
         String oldLineage = lineage;
         lineage = getParent() == null
                 ? "/" + id + "/"
                 : getParent().getLineage() + id + "/";
-        return !lineage.equals(oldLineage);
+
+        Set<Integer> lineageIds = Arrays.stream(lineage.split("/"))
+                .filter(s -> !s.isEmpty())
+                .map(Integer::valueOf)
+                .collect(Collectors.toSet());
+        boolean ancestorsUpdated = !lineageIds.equals(ancestorIds);
+        if (ancestorsUpdated) {
+            ancestorIds.clear();
+            ancestorIds.addAll(lineageIds);
+        }
+        return !lineage.equals(oldLineage) || ancestorsUpdated;
     }
 
     /**
@@ -185,6 +220,14 @@ public class Area extends VersionedEntity<Integer> implements ILocalizable<AreaD
         this.lineage = lineage;
     }
 
+    public Set<Integer> getAncestorIds() {
+        return ancestorIds;
+    }
+
+    public void setAncestorIds(Set<Integer> ancestorIds) {
+        this.ancestorIds = ancestorIds;
+    }
+
     public double getSortOrder() {
         return sortOrder;
     }
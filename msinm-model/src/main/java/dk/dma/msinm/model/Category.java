@@ -19,23 +19,35 @@ import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.model.ILocalizable;
 import dk.dma.msinm.common.model.IPreloadable;
 import dk.dma.msinm.common.model.VersionedEntity;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import javax.persistence.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Represents a specific named category, part of an category-hierarchy
  */
 @Entity
+@Cacheable
+@BatchSize(size = 100)
 @NamedQueries({
         @NamedQuery(name  = "Category.searchCategories",
                 query = "select distinct c from Category c left join c.descs d where d.lang = :lang and lower(d.name) like lower(:term) "
                         + "order by LOCATE(lower(:sort), lower(d.name))"),
         @NamedQuery(name  = "Category.findRootCategories",
-                query = "select distinct c from Category c left join fetch c.children where c.parent is null"),
+                query = "select distinct c from Category c left join fetch c.children where c.parent is null",
+                hints = @QueryHint(name = "org.hibernate.cacheable", value = "true")),
         @NamedQuery(name  = "Category.findCategoriesWithDescs",
-                query = "select distinct c from Category c left join fetch c.descs")
+                query = "select distinct c from Category c left join fetch c.descs"),
+        @NamedQuery(name  = "Category.fetchDescs",
+                query = "select distinct c from Category c left join fetch c.descs where c.id in :ids")
 })
 public class Category extends VersionedEntity<Integer> implements ILocalizable<CategoryDesc>, IPreloadable {
 
@@ -43,9 +55,11 @@ public class Category extends VersionedEntity<Integer> implements ILocalizable<C
     private Category parent;
 
     @OneToMany(mappedBy = "parent", cascade = CascadeType.ALL)
+    @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
     private List<Category> children = new ArrayList<>();
 
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "entity", orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
     List<CategoryDesc> descs = new ArrayList<>();
 
     @Override
@@ -61,6 +75,16 @@ public class Category extends VersionedEntity<Integer> implements ILocalizable<C
     @Column(length = 256)
     String lineage;
 
+    // The ID's of this category and all its ancestors, derived from the lineage.
+    // Used for matching entire category sub-trees via indexed equality predicates
+    @ElementCollection
+    @Cache(usage = CacheConcurrencyStrategy.TRANSACTIONAL)
+    @CollectionTable(name = "CategoryAncestor",
+            joinColumns = @JoinColumn(name = "category_id"),
+            indexes = @Index(name = "CategoryAncestor_ancestorId", columnList = "ancestorId"))
+    @Column(name = "ancestorId")
+    Set<Integer> ancestorIds = new HashSet<>();
+
     /**
      * {@inheritDoc}
      */
@@ -84,15 +108,26 @@ public class Category extends VersionedEntity<Integer> implements ILocalizable<C
     }
 
     /**
-     * Update the lineage to have the format "/root-id/.../parent-id/id"
-     * @return if the lineage was updated
+     * Update the lineage to have the format "/root-id/.../parent-id/id",
+     * along with the set of ancestor ID's
+     * @return if the lineage or ancestor ID's were updated
      */
     public boolean updateLineage() {
         String oldLineage = lineage;
         lineage = getParent() == null
                 ? "/" + id  + "/"
                 : getParent().getLineage() + id + "/";
-        return !lineage.equals(oldLineage);
+
+        Set<Integer> lineageIds = Arrays.stream(lineage.split("/"))
+                .filter(s -> !s.isEmpty())
+                .map(Integer::valueOf)
+                .collect(Collectors.toSet());
+        boolean ancestorsUpdated = !lineageIds.equals(ancestorIds);
+        if (ancestorsUpdated) {
+            ancestorIds.clear();
+            ancestorIds.addAll(lineageIds);
+        }
+        return !lineage.equals(oldLineage) || ancestorsUpdated;
     }
 
     /**
@@ -144,4 +179,12 @@ public class Category extends VersionedEntity<Integer> implements ILocalizable<C
     public void setLineage(String lineage) {
         this.lineage = lineage;
     }
+
+    public Set<Integer> getAncestorIds() {
+        return ancestorIds;
+    }
+
+    public void setAncestorIds(Set<Integer> ancestorIds) {
+        this.ancestorIds = ancestorIds;
+    }
 }
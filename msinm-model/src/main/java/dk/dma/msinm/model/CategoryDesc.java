@@ -18,6 +18,7 @@ package dk.dma.msinm.model;
 import dk.dma.msinm.common.model.DescEntity;
 import dk.dma.msinm.common.model.ILocalizedDesc;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
 import javax.validation.constraints.NotNull;
 
@@ -25,6 +26,7 @@ import javax.validation.constraints.NotNull;
  * Localized contents for the Category entity
  */
 @Entity
+@Cacheable
 public class CategoryDesc extends DescEntity<Category> {
 
     @NotNull
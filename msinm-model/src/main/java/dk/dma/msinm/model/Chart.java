@@ -19,10 +19,12 @@ import com.spatial4j.core.shape.Shape;
 import com.spatial4j.core.shape.SpatialRelation;
 import dk.dma.msinm.common.model.VersionedEntity;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.validation.constraints.NotNull;
 import java.util.List;
 
@@ -30,6 +32,7 @@ import java.util.List;
  * Represents a chart
  */
 @Entity
+@Cacheable
 @NamedQueries({
         @NamedQuery(name  = "Chart.searchCharts",
                 query = "select distinct c from Chart c where lower(c.chartNumber) like lower(:term) "
@@ -40,9 +43,11 @@ import java.util.List;
                         + "when LOCATE(lower(:sort), lower(c.chartNumber)) = 0 then LOCATE(lower(:sort), c.name) "
                         + "else LOCATE(lower(:sort), lower(c.chartNumber)) end, chartNumber"),
         @NamedQuery(name  = "Chart.findAll",
-                query = "select c from Chart c order by coalesce(scale, 99999999) asc, chartNumber"),
+                query = "select c from Chart c order by coalesce(scale, 99999999) asc, chartNumber",
+                hints = @QueryHint(name = "org.hibernate.cacheable", value = "true")),
         @NamedQuery(name="Chart.findByChartNumber",
-                query="SELECT chart FROM Chart chart where chart.chartNumber = :chartNumber")
+                query="SELECT chart FROM Chart chart where chart.chartNumber = :chartNumber",
+                hints=@QueryHint(name="org.hibernate.cacheable",value="true"))
 })
 public class Chart extends VersionedEntity<Integer> {
 
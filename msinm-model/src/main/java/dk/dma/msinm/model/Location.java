@@ -24,6 +24,7 @@ import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.model.ILocalizable;
 import dk.dma.msinm.common.model.IPreloadable;
 import dk.dma.msinm.lucene.LuceneUtils;
+import org.hibernate.annotations.BatchSize;
 
 import javax.json.*;
 import javax.persistence.*;
@@ -38,6 +39,12 @@ import java.util.stream.Collectors;
  * Defines a location as either a point, a circle, a polygon or a polyline.
  */
 @Entity
+@NamedQueries({
+        @NamedQuery(name  = "Location.fetchPoints",
+                query = "select distinct loc from Location loc left join fetch loc.points where loc.id in :ids"),
+        @NamedQuery(name  = "Location.fetchDescs",
+                query = "select distinct loc from Location loc left join fetch loc.descs where loc.id in :ids")
+})
 public class Location extends BaseEntity<Integer> implements ILocalizable<LocationDesc>, IPreloadable {
 
     private static final long serialVersionUID = 1L;
@@ -50,6 +57,7 @@ public class Location extends BaseEntity<Integer> implements ILocalizable<Locati
     @Enumerated(EnumType.STRING)
     private LocationType type;
     
+    @BatchSize(size = 100)
     @NotNull
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "location")
     @OrderBy("index")
@@ -57,6 +65,7 @@ public class Location extends BaseEntity<Integer> implements ILocalizable<Locati
 
     private Integer radius;
 
+    @BatchSize(size = 100)
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "entity", orphanRemoval = true)
     List<LocationDesc> descs = new ArrayList<>();
 
@@ -19,6 +19,7 @@ import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.model.ILocalizable;
 import dk.dma.msinm.common.model.IPreloadable;
 import dk.dma.msinm.common.model.VersionedEntity;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -29,12 +30,44 @@ import java.util.*;
  */
 @Entity
 @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
+@NamedEntityGraphs({
+    @NamedEntityGraph(name = Message.GRAPH_CACHED_MESSAGE,
+                attributeNodes = { @NamedAttributeNode(value = "area", subgraph = "area"), @NamedAttributeNode("descs") },
+                subgraphs = @NamedSubgraph(name = "area", attributeNodes = @NamedAttributeNode("parent"))),
+    @NamedEntityGraph(name = Message.GRAPH_MAP_MODE,
+                attributeNodes = @NamedAttributeNode("descs")),
+    @NamedEntityGraph(name = Message.GRAPH_INDEX,
+                attributeNodes = { @NamedAttributeNode(value = "area", subgraph = "area"), @NamedAttributeNode("descs") },
+                subgraphs = @NamedSubgraph(name = "area", attributeNodes = @NamedAttributeNode("parent")))
+})
 @NamedQueries({
     @NamedQuery(name="Message.findBySeriesIdentifier",
                 query="SELECT msg FROM Message msg where msg.seriesIdentifier.mainType = :type and msg.seriesIdentifier.number = :number " +
                       " and msg.seriesIdentifier.year = :year and msg.seriesIdentifier.authority = :authority"),
+    @NamedQuery(name="Message.findByIds",
+                query="SELECT msg FROM Message msg where msg.id in :ids"),
+    @NamedQuery(name="Message.findByIdRange",
+                query="SELECT msg FROM Message msg where msg.id >= :fromId and msg.id < :toId order by msg.id asc"),
+    @NamedQuery(name="Message.findIdRangeAndCount",
+                query="SELECT min(msg.id), max(msg.id), count(msg) FROM Message msg"),
+    @NamedQuery(name="Message.findSeriesIdentifiers",
+                query="SELECT msg.id, msg.seriesIdentifier FROM Message msg where msg.seriesIdentifier.number is not null and msg.status <> 'DELETED'"),
+    @NamedQuery(name="Message.fetchDescs",
+                query="SELECT distinct msg FROM Message msg left join fetch msg.descs where msg.id in :ids"),
+    @NamedQuery(name="Message.fetchCategories",
+                query="SELECT distinct msg FROM Message msg left join fetch msg.categories where msg.id in :ids"),
+    @NamedQuery(name="Message.fetchCharts",
+                query="SELECT distinct msg FROM Message msg left join fetch msg.charts where msg.id in :ids"),
+    @NamedQuery(name="Message.fetchLocations",
+                query="SELECT distinct msg FROM Message msg left join fetch msg.locations where msg.id in :ids"),
+    @NamedQuery(name="Message.fetchReferences",
+                query="SELECT distinct msg FROM Message msg left join fetch msg.references where msg.id in :ids"),
+    @NamedQuery(name="Message.fetchLightsListNumbers",
+                query="SELECT distinct msg FROM Message msg left join fetch msg.lightsListNumbers where msg.id in :ids"),
+    @NamedQuery(name="Message.fetchPublications",
+                query="SELECT distinct msg FROM Message msg left join fetch msg.publications where msg.id in :ids"),
     @NamedQuery(name="Message.findUpdateMessages",
-                query="SELECT msg FROM Message msg where msg.updated > :date order by msg.updated asc"),
+                query="SELECT msg FROM Message msg where msg.updated > :date or (msg.updated = :date and msg.id > :id) order by msg.updated asc, msg.id asc"),
     @NamedQuery(name="Message.findActive",
                 query="SELECT msg FROM Message msg where msg.status = 'PUBLISHED' order by msg.validFrom asc"),
     @NamedQuery(name="Message.findActiveNotices",
@@ -51,6 +84,12 @@ public class Message extends VersionedEntity<Integer> implements ILocalizable<Me
 
     private static final long serialVersionUID = 1L;
 
+    // Names of the entity graphs used by the message fetch plans.
+    // NB: Hibernate can only fetch-join a single bag (list), so each graph contains at most one list
+    public static final String GRAPH_CACHED_MESSAGE = "Message.cachedMessage";
+    public static final String GRAPH_MAP_MODE       = "Message.mapMode";
+    public static final String GRAPH_INDEX          = "Message.index";
+
     @NotNull
     @Embedded
     SeriesIdentifier seriesIdentifier;
@@ -66,9 +105,11 @@ public class Message extends VersionedEntity<Integer> implements ILocalizable<Me
     @ManyToOne(cascade = CascadeType.ALL)
     Area area;
 
+    @BatchSize(size = 100)
     @ManyToMany(cascade = CascadeType.ALL)
     List<Category> categories = new ArrayList<>();
 
+    @BatchSize(size = 100)
     @ManyToMany(cascade = CascadeType.ALL)
     @OrderBy("coalesce(scale, 99999999) ASC")
     List<Chart> charts = new ArrayList<>();
@@ -82,26 +123,31 @@ public class Message extends VersionedEntity<Integer> implements ILocalizable<Me
     @Temporal(TemporalType.TIMESTAMP)
     Date validTo;
 
+    @BatchSize(size = 100)
     @OneToMany(cascade = CascadeType.ALL)
     List<Location> locations = new ArrayList<>();
 
+    @BatchSize(size = 100)
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "entity", orphanRemoval = true)
     List<MessageDesc> descs = new ArrayList<>();
 
     @Temporal(TemporalType.TIMESTAMP)
     Date cancellationDate;
 
+    @BatchSize(size = 100)
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "message", orphanRemoval = true)
     Set<Reference> references = new HashSet<>();
 
     @NotNull
     Priority priority = Priority.NONE;
 
+    @BatchSize(size = 100)
     @ElementCollection
     List<String> lightsListNumbers = new ArrayList<>();
 
     boolean originalInformation;
 
+    @BatchSize(size = 100)
     @OneToMany(cascade = CascadeType.ALL)
     List<Publication> publications = new ArrayList<>();
 
@@ -19,6 +19,7 @@ import dk.dma.msinm.common.model.BaseEntity;
 import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.model.ILocalizable;
 import dk.dma.msinm.common.model.IPreloadable;
+import org.hibernate.annotations.BatchSize;
 
 import javax.json.Json;
 import javax.json.JsonObjectBuilder;
@@ -31,6 +32,10 @@ import java.util.List;
  * Defines a position by its latitude, longitude and order
  */
 @Entity
+@NamedQueries({
+        @NamedQuery(name  = "Point.fetchDescs",
+                query = "select distinct p from Point p left join fetch p.descs where p.id in :ids")
+})
 public class Point extends BaseEntity<Integer> implements ILocalizable<PointDesc>, IPreloadable {
 
     private static final long serialVersionUID = 1L;
@@ -49,6 +54,7 @@ public class Point extends BaseEntity<Integer> implements ILocalizable<PointDesc
     @NotNull
     private Integer index;
 
+    @BatchSize(size = 100)
     @OneToMany(cascade = CascadeType.ALL, mappedBy = "entity", orphanRemoval = true)
     List<PointDesc> descs = new ArrayList<>();
 
@@ -20,6 +20,7 @@ import dk.dma.msinm.common.db.PredicateHelper;
 import dk.dma.msinm.common.db.Sql;
 import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.service.BaseService;
+import dk.dma.msinm.common.service.SecondLevelCacheEvictionEvent;
 import dk.dma.msinm.common.settings.DefaultSetting;
 import dk.dma.msinm.common.settings.Setting;
 import dk.dma.msinm.common.settings.Settings;
@@ -31,6 +32,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -42,8 +44,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -61,6 +65,12 @@ public class AreaService extends BaseService {
     @Inject
     MessageService messageService;
 
+    @Inject
+    Event<MessageIndexEvent> messageIndexEvent;
+
+    @Inject
+    Event<SecondLevelCacheEvictionEvent> cacheEvictionEvent;
+
     @Inject
     private MsiNmApp app;
 
@@ -177,6 +187,7 @@ public class AreaService extends BaseService {
         original.updateLineage();
 
         original = saveEntity(original);
+        evictAreaTreeCache();
 
         // Evict all cached messages for the area subtree
         evictCachedMessages(original);
@@ -204,6 +215,7 @@ public class AreaService extends BaseService {
         area = saveEntity(area);
 
         em.flush();
+        evictAreaTreeCache();
         return area;
     }
 
@@ -233,12 +245,14 @@ public class AreaService extends BaseService {
 
         // Update all lineages
         updateLineages();
+        evictAreaTreeCache();
 
         // Return the update area
         area = getByPrimaryKey(Area.class, area.getId());
 
-        // Evict all cached messages for the area subtree
-        evictCachedMessages(area);
+        // Evict all cached messages for the area subtree and re-index them after commit,
+        // since the indexed area ancestors have changed
+        messageIndexEvent.fire(new MessageIndexEvent(evictCachedMessages(area)));
 
         return area;
     }
@@ -295,7 +309,9 @@ public class AreaService extends BaseService {
             // Save the entity
             area = saveEntity(area);
 
-            // NB: Cache eviction not needed since lineage is the same...
+            // NB: Message cache eviction not needed since lineage is the same,
+            // but the cached children collections are ordered by sort order
+            evictAreaTreeCache();
         }
 
         return area;
@@ -304,19 +320,33 @@ public class AreaService extends BaseService {
     /**
      * Evict all cached messages for the given subtree of areas
      * @param area the subtree to evict cacahed messaged for
+     * @return the ids of the evicted messages
      */
-    private void evictCachedMessages(Area area) {
+    private List<Integer> evictCachedMessages(Area area) {
         // Sanity check
         if (area == null || area.getLineage() == null) {
-            return;
+            return Collections.emptyList();
         }
 
         String sql = areaMessagesSql.replace(":lineage", "'" + area.getLineage() + "%'");
 
-        List<?> ids = em.createNativeQuery(sql)
-                .getResultList();
+        List<Integer> ids = ((List<?>) em.createNativeQuery(sql).getResultList()).stream()
+                .map(o -> ((Number) o).intValue())
+                .collect(Collectors.toList());
 
-        ids.forEach(o -> messageService.evictCachedMessageId(((Number) o).intValue()));
+        ids.forEach(messageService::evictCachedMessageId);
+        return ids;
+    }
+
+    /**
+     * Evicts the area tree from the second-level cache once the transaction has committed.
+     * <p>
+     * The inverse children collections are not updated by Hibernate when
+     * e.g. an area is deleted or re-sorted, so the cached collections are evicted
+     * whenever the tree structure changes.
+     */
+    private void evictAreaTreeCache() {
+        cacheEvictionEvent.fire(new SecondLevelCacheEvictionEvent(Area.class, "children", "ancestorIds"));
     }
 
     /**
@@ -367,6 +397,7 @@ public class AreaService extends BaseService {
             area.setParent(null);
             saveEntity(area);
             remove(area);
+            evictAreaTreeCache();
             return true;
         }
         return false;
@@ -502,6 +533,18 @@ public class AreaService extends BaseService {
 
         em.flush();
 
+        // Re-index the messages of the updated sub-trees after commit, since the area tree sort order is indexed.
+        // The sub-tree of an updated area contains those of its updated descendants, so only look up the top-most ones
+        Set<Integer> messageIds = new LinkedHashSet<>();
+        updated.stream()
+                .filter(area -> updated.stream().noneMatch(ancestor -> ancestor != area &&
+                        area.getLineage() != null && ancestor.getLineage() != null &&
+                        area.getLineage().startsWith(ancestor.getLineage())))
+                .forEach(area -> messageIds.addAll(evictCachedMessages(area)));
+        if (!messageIds.isEmpty()) {
+            messageIndexEvent.fire(new MessageIndexEvent(new ArrayList<>(messageIds)));
+        }
+
         // Update the last processed date
         settings.updateSetting(new SettingsEntity(
                 AREA_LAST_UPDATE.getSettingName(),
@@ -52,6 +52,14 @@ public class BookmarkCache extends BaseCache {
         return cacheContainer.getCache(CACHE_ID);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCacheId() {
+        return CACHE_ID;
+    }
+
     /**
      * Clears the cache
      */
@@ -20,6 +20,7 @@ import dk.dma.msinm.common.db.PredicateHelper;
 import dk.dma.msinm.common.db.Sql;
 import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.service.BaseService;
+import dk.dma.msinm.common.service.SecondLevelCacheEvictionEvent;
 import dk.dma.msinm.model.Category;
 import dk.dma.msinm.model.CategoryDesc;
 import dk.dma.msinm.vo.CategoryVo;
@@ -27,6 +28,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 
 import javax.ejb.Stateless;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
@@ -35,6 +37,7 @@ import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Root;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +57,12 @@ public class CategoryService extends BaseService {
     @Inject
     private MessageService messageService;
 
+    @Inject
+    Event<MessageIndexEvent> messageIndexEvent;
+
+    @Inject
+    Event<SecondLevelCacheEvictionEvent> cacheEvictionEvent;
+
     @Inject
     private MsiNmApp app;
 
@@ -154,6 +163,7 @@ public class CategoryService extends BaseService {
         original.updateLineage();
 
         original = saveEntity(original);
+        evictCategoryTreeCache();
 
         // Evict all cached messages for the category subtree
         evictCachedMessages(original);
@@ -181,6 +191,7 @@ public class CategoryService extends BaseService {
         category = saveEntity(category);
 
         em.flush();
+        evictCategoryTreeCache();
         return category;
     }
 
@@ -209,12 +220,14 @@ public class CategoryService extends BaseService {
 
         // Update all lineages
         updateLineages();
+        evictCategoryTreeCache();
 
         // Return the update area
         category = getByPrimaryKey(Category.class, category.getId());
 
-        // Evict all cached messages for the category subtree
-        evictCachedMessages(category);
+        // Evict all cached messages for the category subtree and re-index them after commit,
+        // since the indexed category ancestors have changed
+        messageIndexEvent.fire(new MessageIndexEvent(evictCachedMessages(category)));
 
         return category;
     }
@@ -222,19 +235,33 @@ public class CategoryService extends BaseService {
     /**
      * Evict all cached messages for the given subtree of areas
      * @param category the subtree to evict cached messaged for
+     * @return the ids of the evicted messages
      */
-    private void evictCachedMessages(Category category) {
+    private List<Integer> evictCachedMessages(Category category) {
         // Sanity check
         if (category == null || category.getLineage() == null) {
-            return;
+            return Collections.emptyList();
         }
 
         String sql = categoryMessagesSql.replace(":lineage", "'" + category.getLineage() + "%'");
 
-        List<?> ids = em.createNativeQuery(sql)
-                .getResultList();
+        List<Integer> ids = ((List<?>) em.createNativeQuery(sql).getResultList()).stream()
+                .map(o -> ((Number) o).intValue())
+                .collect(Collectors.toList());
+
+        ids.forEach(messageService::evictCachedMessageId);
+        return ids;
+    }
 
-        ids.forEach(o -> messageService.evictCachedMessageId(((Number) o).intValue()));
+    /**
+     * Evicts the category tree from the second-level cache once the transaction has committed.
+     * <p>
+     * The inverse children collections are not updated by Hibernate when
+     * e.g. a category is deleted or re-sorted, so the cached collections are evicted
+     * whenever the tree structure changes.
+     */
+    private void evictCategoryTreeCache() {
+        cacheEvictionEvent.fire(new SecondLevelCacheEvictionEvent(Category.class, "children", "ancestorIds"));
     }
 
     /**
@@ -285,6 +312,7 @@ public class CategoryService extends BaseService {
             category.setParent(null);
             saveEntity(category);
             remove(category);
+            evictCategoryTreeCache();
             return true;
         }
         return false;
@@ -50,6 +50,14 @@ public class MessageCache extends BaseCache {
         return cacheContainer.getCache(CACHE_ID);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCacheId() {
+        return CACHE_ID;
+    }
+
     /**
      * Clears the cache
      */
@@ -59,6 +67,14 @@ public class MessageCache extends BaseCache {
         getCache().clear();
     }
 
+    /**
+     * When clustered, saving a message on one node invalidates the cached message on all nodes
+     */
+    @Override
+    protected CacheMode getClusteredCacheMode() {
+        return CacheMode.INVALIDATION_SYNC;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,93 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import dk.dma.msinm.model.Message;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Defines how the data of a list of messages is loaded for a specific view of the messages.
+ * <p>
+ * A fetch plan consists of:
+ * <ul>
+ *     <li>A named entity graph, used for fetch-joining the to-one associations and a single collection
+ *         of the messages with the root query.</li>
+ *     <li>A list of fetch-join named queries, each initializing another collection for all the messages
+ *         using a single query.</li>
+ *     <li>Whether to bulk-load the locations and the area and category ancestor chains of the messages.</li>
+ * </ul>
+ * Any remaining lazy associations touched by a view are loaded in batches, as defined
+ * by the {@code @BatchSize} annotations of the entities.
+ */
+public enum MessageFetchPlan {
+
+    /**
+     * The data of the messages held in the message cache, i.e. {@code MessageService.CACHED_MESSAGE_DATA}
+     */
+    CACHED_MESSAGE(Message.GRAPH_CACHED_MESSAGE, true, true,
+            "Message.fetchCategories", "Message.fetchCharts", "Message.fetchLocations", "Message.fetchReferences",
+            "Message.fetchLightsListNumbers", "Message.fetchPublications"),
+
+    /**
+     * The data displayed for messages in map mode, i.e. the locations and titles
+     */
+    MAP_MODE(Message.GRAPH_MAP_MODE, true, false,
+            "Message.fetchLocations"),
+
+    /**
+     * The data indexed by the message search index
+     */
+    INDEX(Message.GRAPH_INDEX, true, true,
+            "Message.fetchCategories", "Message.fetchCharts", "Message.fetchLocations", "Message.fetchReferences",
+            "Message.fetchLightsListNumbers");
+
+    private final String entityGraph;
+    private final boolean fetchLocations;
+    private final boolean fetchAncestors;
+    private final List<String> fetchQueries;
+
+    /**
+     * Constructor
+     * @param entityGraph the name of the entity graph to use for the root query
+     * @param fetchLocations whether to bulk-load the points and descs of the locations
+     * @param fetchAncestors whether to bulk-load the descs of the area and category ancestor chains
+     * @param fetchQueries the fetch-join named queries to execute for the messages
+     */
+    private MessageFetchPlan(String entityGraph, boolean fetchLocations, boolean fetchAncestors, String... fetchQueries) {
+        this.entityGraph = entityGraph;
+        this.fetchLocations = fetchLocations;
+        this.fetchAncestors = fetchAncestors;
+        this.fetchQueries = Arrays.asList(fetchQueries);
+    }
+
+    public String getEntityGraph() {
+        return entityGraph;
+    }
+
+    public boolean isFetchLocations() {
+        return fetchLocations;
+    }
+
+    public boolean isFetchAncestors() {
+        return fetchAncestors;
+    }
+
+    public List<String> getFetchQueries() {
+        return fetchQueries;
+    }
+}
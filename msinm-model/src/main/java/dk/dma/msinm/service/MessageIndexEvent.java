@@ -0,0 +1,41 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import java.util.List;
+
+/**
+ * CDI event fired when the indexed data of a set of messages has changed indirectly,
+ * e.g. when the area or category tree is changed.
+ * <p>
+ * The messages are re-indexed in the background once the transaction that fired the event has committed.
+ */
+public class MessageIndexEvent {
+
+    final List<Integer> ids;
+
+    /**
+     * Constructor
+     * @param ids the ids of the messages to re-index
+     */
+    public MessageIndexEvent(List<Integer> ids) {
+        this.ids = ids;
+    }
+
+    public List<Integer> getIds() {
+        return ids;
+    }
+}
@@ -0,0 +1,64 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import org.slf4j.Logger;
+
+import javax.ejb.ActivationConfigProperty;
+import javax.ejb.MessageDriven;
+import javax.inject.Inject;
+import javax.jms.MapMessage;
+import javax.jms.MessageListener;
+import java.util.Collections;
+
+
+/**
+ * Listens for message status updates via JMS and re-indexes
+ * the changed message in the message search index
+ */
+@MessageDriven(
+        name = "MessageIndexMDB",
+        activationConfig = {
+                @ActivationConfigProperty(propertyName = "destinationType", propertyValue = "javax.jms.Topic"),
+                @ActivationConfigProperty(propertyName = "destination", propertyValue = "java:/jms/topic/messageTopic"),
+                @ActivationConfigProperty(propertyName = "acknowledgeMode", propertyValue = "Auto-acknowledge")
+        })
+public class MessageIndexListener implements MessageListener {
+
+    @Inject
+    Logger log;
+
+    @Inject
+    MessageSearchService messageSearchService;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onMessage(javax.jms.Message message) {
+
+        try {
+            MapMessage msg = (MapMessage) message;
+            Integer id = msg.getInt("ID");
+
+            log.debug("Received JMS message update for ID: " + id + ", status: " + msg.getString("STATUS"));
+            messageSearchService.indexMessages(Collections.singletonList(id));
+
+        } catch (Throwable e) {
+            log.error("Failed processing JMS message " + message, e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+/**
+ * CDI event fired when a message has been saved.
+ * <p>
+ * Observers that depend on the committed message data should observe the event
+ * with {@code during = TransactionPhase.AFTER_SUCCESS}.
+ */
+public class MessageSavedEvent {
+
+    final Integer id;
+
+    /**
+     * Constructor
+     * @param id the id of the saved message
+     */
+    public MessageSavedEvent(Integer id) {
+        this.id = id;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+}
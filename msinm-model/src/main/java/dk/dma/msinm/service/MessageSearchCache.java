@@ -0,0 +1,182 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import dk.dma.msinm.common.cache.BaseCache;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.eviction.EvictionStrategy;
+import org.infinispan.util.concurrent.IsolationLevel;
+import org.slf4j.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+import javax.inject.Inject;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implements the message search cache, which caches the paged list of message ids and the
+ * total count of message searches.
+ * <p>
+ * The cache is keyed on the canonical form of the search parameters along with a global
+ * "messages version", which is bumped whenever a message save is committed or the message index
+ * is updated. Hence, cached search results never become stale, and entries of previous
+ * versions are simply evicted over time.
+ */
+@ApplicationScoped
+public class MessageSearchCache extends BaseCache {
+
+    final static long LIFESPAN = 30 * 60 * 1000;   // 30 minutes
+    final static int MAX_ENTRIES = 1000;           // at most 1.000 search results
+
+    final static String CACHE_ID = "messageSearchCache";
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    MessageCache messageCache;
+
+    @Inject
+    MessageVoCache messageVoCache;
+
+    private final AtomicLong messagesVersion = new AtomicLong();
+
+    /**
+     * Returns a reference to the message search cache
+     * @return a reference to the message search cache
+     */
+    public Cache<String, CachedPage> getCache() {
+        return cacheContainer.getCache(CACHE_ID);
+    }
+
+    /**
+     * Returns the cache key for the search parameters, given the current messages version
+     * @param param the search parameters
+     * @return the cache key
+     */
+    public String getKey(MessageSearchParams param) {
+        return messagesVersion.get() + ":" + param.toCanonicalString();
+    }
+
+    /**
+     * Bumps the messages version, which effectively invalidates all cached search results
+     */
+    public void bumpMessagesVersion() {
+        messagesVersion.incrementAndGet();
+    }
+
+    /**
+     * Invalidates the cached data of a saved message, and bumps the messages version.
+     * <p>
+     * This is done once the transaction has committed, since a search performed before then would
+     * otherwise cache the uncommitted state under the new version. Likewise, the message is evicted once more
+     * from the message caches, which may have been re-populated with the pre-commit state by another node
+     * @param event the message saved event
+     */
+    public void messageSaved(@Observes(during = TransactionPhase.AFTER_SUCCESS) MessageSavedEvent event) {
+        if (event.getId() != null) {
+            messageCache.getCache().remove(event.getId());
+            messageVoCache.getCache().remove(event.getId());
+        }
+        bumpMessagesVersion();
+    }
+
+    /**
+     * Returns the current messages version
+     * @return the current messages version
+     */
+    public long getMessagesVersion() {
+        return messagesVersion.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCacheId() {
+        return CACHE_ID;
+    }
+
+    /**
+     * Clears the cache
+     */
+    @Override
+    public  void clearCache() {
+        log.info("Clearing cache " + CACHE_ID);
+        getCache().clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Configuration createCacheConfiguration() {
+        return new ConfigurationBuilder()
+                .clustering().cacheMode(CacheMode.LOCAL)
+                .locking().isolationLevel(IsolationLevel.REPEATABLE_READ)
+                .eviction().maxEntries(MAX_ENTRIES).strategy(EvictionStrategy.LRU)
+                .expiration().lifespan(LIFESPAN)
+                .build();
+    }
+
+    /**
+     * A cached page of a message search result
+     */
+    public static class CachedPage implements Serializable {
+
+        final List<Integer> ids;
+        final int total;
+        final boolean totalApproximate;
+        final String cursor;
+        final Map<String, Map<String, Integer>> facets;
+
+        /**
+         * Constructor
+         * @param ids the paged list of message ids
+         * @param result the search result
+         */
+        public CachedPage(List<Integer> ids, MessageSearchResult result) {
+            this.ids = new ArrayList<>(ids);
+            this.total = result.getTotal();
+            this.totalApproximate = result.isTotalApproximate();
+            this.cursor = result.getCursor();
+            this.facets = result.getFacets();
+        }
+
+        /**
+         * Copies the cached totals, cursor and facets to the search result
+         * @param result the search result to update
+         */
+        public void copyTo(MessageSearchResult result) {
+            result.setTotal(total);
+            result.setTotalApproximate(totalApproximate);
+            result.setCursor(cursor);
+            result.setFacets(facets);
+        }
+
+        public List<Integer> getIds() {
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+/**
+ * An opaque cursor used for keyset pagination of message searches.
+ * <p>
+ * The cursor encodes the sort order along with the sort key of the last message of a page:
+ * <ul>
+ *     <li>{@code DATE}: validFrom and id</li>
+ *     <li>{@code ID}: series year, series number and id</li>
+ *     <li>{@code AREA}: area treeSortOrder and id</li>
+ * </ul>
+ * Undefined sort key values are encoded as 0.
+ */
+public class MessageSearchCursor {
+
+    final MessageSearchParams.SortBy sortBy;
+    final MessageSearchParams.SortOrder sortOrder;
+    final long[] keys;
+
+    /**
+     * Constructor
+     * @param sortBy the sort field
+     * @param sortOrder the sort order
+     * @param keys the sort key values of the last message of the page
+     */
+    public MessageSearchCursor(MessageSearchParams.SortBy sortBy, MessageSearchParams.SortOrder sortOrder, long... keys) {
+        if (keys.length != keyCount(sortBy)) {
+            throw new IllegalArgumentException("Invalid number of sort keys for " + sortBy + ": " + keys.length);
+        }
+        this.sortBy = sortBy;
+        this.sortOrder = sortOrder;
+        this.keys = keys;
+    }
+
+    /**
+     * Returns the number of sort keys, including the message id, used for the given sort field
+     * @param sortBy the sort field
+     * @return the number of sort keys
+     */
+    public static int keyCount(MessageSearchParams.SortBy sortBy) {
+        return sortBy == MessageSearchParams.SortBy.ID ? 3 : 2;
+    }
+
+    /**
+     * Parses the encoded cursor
+     * @param cursor the encoded cursor
+     * @return the parsed cursor, or null if the cursor is blank
+     */
+    public static MessageSearchCursor parse(String cursor) {
+        if (isBlank(cursor)) {
+            return null;
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            return new MessageSearchCursor(
+                    MessageSearchParams.SortBy.valueOf(parts[0]),
+                    MessageSearchParams.SortOrder.valueOf(parts[1]),
+                    Arrays.stream(parts, 2, parts.length).mapToLong(Long::parseLong).toArray());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid search cursor " + cursor, e);
+        }
+    }
+
+    /**
+     * Parses the cursor of the given search parameters, and checks that it was issued
+     * for the sort order of the search parameters
+     * @param param the search parameters
+     * @return the parsed cursor, or null if the cursor is blank
+     */
+    public static MessageSearchCursor parse(MessageSearchParams param) {
+        MessageSearchCursor cursor = parse(param.getCursor());
+        if (cursor != null && !cursor.matches(param)) {
+            throw new IllegalArgumentException("Search cursor " + param.getCursor() + " was issued for a different sort order");
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the encoded cursor
+     * @return the encoded cursor
+     */
+    public String encode() {
+        String cursor = sortBy + ":" + sortOrder + ":" + Arrays.stream(keys)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(":"));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns if the cursor was issued for the sort order of the given search parameters
+     * @param param the search parameters
+     * @return if the cursor applies to the search parameters
+     */
+    public boolean matches(MessageSearchParams param) {
+        return sortBy == param.getSortBy() && sortOrder == param.getSortOrder();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "MessageSearchCursor{" +
+                "sortBy=" + sortBy +
+                ", sortOrder=" + sortOrder +
+                ", keys=" + Arrays.toString(keys) +
+                '}';
+    }
+
+    public MessageSearchParams.SortBy getSortBy() {
+        return sortBy;
+    }
+
+    public MessageSearchParams.SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    public long[] getKeys() {
+        return keys;
+    }
+}
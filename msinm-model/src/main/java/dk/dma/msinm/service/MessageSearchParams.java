@@ -57,6 +57,7 @@ public class MessageSearchParams implements JsonSerializable {
 
     int maxHits = 100;
     int startIndex = 0;
+    String cursor;
     SortBy sortBy = SortBy.ID;
     SortOrder sortOrder = SortOrder.DESC;
     boolean mapMode;
@@ -115,6 +116,49 @@ public class MessageSearchParams implements JsonSerializable {
         return desc.stream().collect(Collectors.joining(", "));
     }
 
+    /**
+     * Returns a canonical string representation of all the search parameters, including
+     * sorting and paging, where e.g. sets are sorted. Two equivalent sets of search
+     * parameters produce the same canonical string, which can thus be used as a cache key.
+     *
+     * @return a canonical string representation of the search parameters
+     */
+    public String toCanonicalString() {
+        return String.join("|",
+                String.valueOf(language),
+                String.valueOf(query),
+                from == null ? "" : String.valueOf(from.getTime()),
+                to == null ? "" : String.valueOf(to.getTime()),
+                locations.stream().map(loc -> loc.toJson().build().toString()).collect(Collectors.joining(";")),
+                String.valueOf(status),
+                sorted(types),
+                sorted(mainTypes),
+                sorted(areaIds),
+                sorted(categoryIds),
+                sorted(chartIds),
+                String.valueOf(bookmarks),
+                String.valueOf(maxHits),
+                String.valueOf(startIndex),
+                String.valueOf(cursor),
+                String.valueOf(sortBy),
+                String.valueOf(sortOrder),
+                String.valueOf(mapMode),
+                updatedFrom == null ? "" : String.valueOf(updatedFrom.getTime()),
+                updatedTo == null ? "" : String.valueOf(updatedTo.getTime()));
+    }
+
+    /**
+     * Returns a sorted, comma-separated representation of the values
+     * @param values the values
+     * @return a sorted, comma-separated representation of the values
+     */
+    private static String sorted(Set<?> values) {
+        return values.stream()
+                .map(String::valueOf)
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
     /**
      * Parses the request parameters and collects them in a MessageSearchParams entity
      */
@@ -314,6 +358,14 @@ public class MessageSearchParams implements JsonSerializable {
         this.startIndex = startIndex;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public Set<Type> getTypes() {
         return types;
     }
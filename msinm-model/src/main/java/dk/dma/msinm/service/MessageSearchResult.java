@@ -15,14 +15,20 @@
  */
 package dk.dma.msinm.service;
 
-import dk.dma.msinm.model.Category;
-import dk.dma.msinm.model.Message;
-import dk.dma.msinm.common.model.DataFilter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dma.msinm.common.util.JsonUtils;
 import dk.dma.msinm.vo.MessageVo;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -36,32 +42,102 @@ import java.util.Set;
  * overflowed flag will be set, and no messages will be returned.
  *
  * This is e.g. used in Map view mode to show the MSI-NM background layer.
+ * <p>
+ * When the search is performed by the Lucene index, the {@code facets} contain the
+ * number of matching messages per area, category, type and status, keyed by the facet
+ * dimension and then the area id, category id, type or status respectively.
+ * <p>
+ * If the page is full, the {@code cursor} can be passed on to the next search
+ * to fetch the following page using keyset pagination rather than the {@code startIndex}.
+ * <p>
+ * The message value objects are shared with the {@linkplain MessageVoCache}, and must be treated
+ * as immutable. Callers that need to modify the messages should call {@linkplain #copyMessages()} first.
+ * Use {@linkplain #writeJson(OutputStream)} to serialize the search result by splicing together
+ * the pre-rendered JSON of the messages.
  */
 public class MessageSearchResult implements Serializable {
 
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
     List<MessageVo> messages = new ArrayList<>();
     int startIndex;
     int total;
+    boolean totalApproximate;
+    String cursor;
     boolean overflowed;
+    Map<String, Map<String, Integer>> facets = new LinkedHashMap<>();
+
+    // The pre-rendered JSON of the messages and the bookmarked message ids, used by writeJson()
+    Map<Integer, byte[]> messagesJson = new HashMap<>();
+    Set<Integer> bookmarkIds = new HashSet<>();
 
     /**
-     * Add a list of messages to the search result
-     * @param messages the messages to add
+     * Add a list of rendered messages to the search result
+     * @param renderedMessages the rendered messages to add
      * @param bookmarkIds the bookmarked messages
-     * @param firingExerciseCategory the Firing Exercise cateogry
-     * @param dataFilter what type of data to copy from the entity
      */
-    public void addMessages(List<Message> messages, Set<Integer> bookmarkIds, Category firingExerciseCategory, DataFilter dataFilter) {
-        messages.forEach(msg -> {
-            MessageVo messageVo = new MessageVo(msg, dataFilter);
-            messageVo.setBookmarked(bookmarkIds.contains(messageVo.getId()));
-            if (dataFilter.include("Message.firingExercise")) {
-                messageVo.setFiringExercise(
-                        msg.getCategories().stream()
-                                .anyMatch(cat -> cat.getId().equals(firingExerciseCategory.getId())));
-            }
-            this.messages.add(messageVo);
+    public void addMessages(List<MessageVoCache.RenderedMessage> renderedMessages, Set<Integer> bookmarkIds) {
+        renderedMessages.forEach(renderedMessage -> {
+            MessageVo messageVo = renderedMessage.getMessageVo();
+            messages.add(messageVo);
+            messagesJson.put(messageVo.getId(), renderedMessage.getJson());
         });
+        this.bookmarkIds.addAll(bookmarkIds);
+    }
+
+    /**
+     * Replaces the shared message value objects with private copies, which may be modified
+     * by the caller. The copies are de-serialized from the pre-rendered JSON.
+     */
+    public void copyMessages() throws IOException {
+        List<MessageVo> copies = new ArrayList<>();
+        for (MessageVo messageVo : messages) {
+            byte[] json = messagesJson.get(messageVo.getId());
+            MessageVo copy = (json != null)
+                    ? JSON_MAPPER.readValue(json, MessageVo.class)
+                    : JsonUtils.fromJson(JsonUtils.toJson(messageVo), MessageVo.class);
+            copy.setBookmarked(bookmarkIds.contains(copy.getId()));
+            copies.add(copy);
+        }
+        setMessages(copies);
+    }
+
+    /**
+     * Writes the search result as UTF-8 JSON to the output stream.
+     * <p>
+     * Rather than serializing the messages, the pre-rendered JSON of each message is spliced
+     * into the output, along with the per-user bookmarked flag.
+     * If the messages have been replaced, the search result is serialized in full.
+     *
+     * @param out the output stream to write to
+     */
+    public void writeJson(OutputStream out) throws IOException {
+        if (!messages.stream().allMatch(msg -> messagesJson.containsKey(msg.getId()))) {
+            out.write(JSON_MAPPER.writeValueAsBytes(this));
+            return;
+        }
+
+        out.write("{\"messages\":[".getBytes(StandardCharsets.UTF_8));
+        for (int x = 0; x < messages.size(); x++) {
+            Integer id = messages.get(x).getId();
+            byte[] json = messagesJson.get(id);
+            // The rendered JSON does not contain the bookmarked flag, so insert it after the leading "{"
+            out.write((x == 0 ? "{" : ",{").getBytes(StandardCharsets.UTF_8));
+            out.write(("\"bookmarked\":" + bookmarkIds.contains(id) + ",").getBytes(StandardCharsets.UTF_8));
+            out.write(json, 1, json.length - 1);
+        }
+        out.write("],".getBytes(StandardCharsets.UTF_8));
+
+        // Serialize the remaining fields, and skip the leading "{"
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("startIndex", startIndex);
+        fields.put("total", total);
+        fields.put("totalApproximate", totalApproximate);
+        fields.put("cursor", cursor);
+        fields.put("overflowed", overflowed);
+        fields.put("facets", facets);
+        byte[] json = JSON_MAPPER.writeValueAsBytes(fields);
+        out.write(json, 1, json.length - 1);
     }
 
     /**
@@ -73,7 +149,10 @@ public class MessageSearchResult implements Serializable {
                 "messages no=" + messages.size() +
                 ", startIndex=" + startIndex +
                 ", total=" + total +
+                ", totalApproximate=" + totalApproximate +
                 ", overflowed=" + overflowed +
+                ", cursor=" + cursor +
+                ", facets=" + facets.keySet() +
                 '}';
     }
 
@@ -83,6 +162,7 @@ public class MessageSearchResult implements Serializable {
 
     public void setMessages(List<MessageVo> messages) {
         this.messages = messages;
+        this.messagesJson = new HashMap<>();
     }
 
     public int getStartIndex() {
@@ -101,6 +181,22 @@ public class MessageSearchResult implements Serializable {
         this.total = total;
     }
 
+    public boolean isTotalApproximate() {
+        return totalApproximate;
+    }
+
+    public void setTotalApproximate(boolean totalApproximate) {
+        this.totalApproximate = totalApproximate;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public boolean isOverflowed() {
         return overflowed;
     }
@@ -108,4 +204,12 @@ public class MessageSearchResult implements Serializable {
     public void setOverflowed(boolean overflowed) {
         this.overflowed = overflowed;
     }
+
+    public Map<String, Map<String, Integer>> getFacets() {
+        return facets;
+    }
+
+    public void setFacets(Map<String, Map<String, Integer>> facets) {
+        this.facets = facets;
+    }
 }
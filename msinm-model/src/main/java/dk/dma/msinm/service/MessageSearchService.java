@@ -15,7 +15,9 @@
  */
 package dk.dma.msinm.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.spatial4j.core.context.SpatialContext;
+import com.spatial4j.core.distance.DistanceUtils;
 import com.spatial4j.core.shape.Shape;
 import dk.dma.msinm.common.MsiNmApp;
 import dk.dma.msinm.common.db.PredicateHelper;
@@ -23,6 +25,11 @@ import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.settings.annotation.Setting;
 import dk.dma.msinm.common.util.TextUtils;
 import dk.dma.msinm.lucene.AbstractLuceneIndex;
+import dk.dma.msinm.lucene.AdaptiveSpatialStrategy;
+import dk.dma.msinm.lucene.BulkReindexSource;
+import dk.dma.msinm.lucene.IdPage;
+import dk.dma.msinm.lucene.IdSet;
+import dk.dma.msinm.lucene.LuceneUtils;
 import dk.dma.msinm.model.Area;
 import dk.dma.msinm.model.AreaDesc;
 import dk.dma.msinm.model.Category;
@@ -34,31 +41,49 @@ import dk.dma.msinm.model.Message;
 import dk.dma.msinm.model.PointDesc;
 import dk.dma.msinm.model.SeriesIdentifier;
 import dk.dma.msinm.model.Type;
+import dk.dma.msinm.vo.MessageVo;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.queries.BooleanFilter;
 import org.apache.lucene.queries.ChainedFilter;
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
 import org.apache.lucene.spatial.SpatialStrategy;
-import org.apache.lucene.spatial.prefix.RecursivePrefixTreeStrategy;
 import org.apache.lucene.spatial.prefix.tree.GeohashPrefixTree;
 import org.apache.lucene.spatial.prefix.tree.SpatialPrefixTree;
 import org.apache.lucene.spatial.query.SpatialArgs;
 import org.apache.lucene.spatial.query.SpatialOperation;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.ejb.Asynchronous;
 import javax.ejb.Lock;
 import javax.ejb.LockType;
 import javax.ejb.Schedule;
+import javax.ejb.SessionContext;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
 import javax.persistence.criteria.Join;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Predicate;
@@ -69,11 +94,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -86,7 +114,33 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
 
     final static String SEARCH_FIELD    = "message";
     final static String LOCATION_FIELD  = "location";
+    final static String LOCATION_SIMPLIFIED_FIELD = "locationSimplified";
     final static String STATUS_FIELD    = "status";
+    final static String TYPE_FIELD      = "type";
+    final static String CREATED_FIELD   = "created";
+    final static String UPDATED_FIELD   = "updated";
+    final static String VALID_FROM_FIELD = "validFrom";
+    final static String SERIES_YEAR_FIELD = "seriesYear";
+    final static String SERIES_NUMBER_FIELD = "seriesNumber";
+    final static String AREA_SORT_FIELD = "areaSortOrder";
+    final static String AREA_ID_FIELD   = "areaId";
+    final static String CATEGORY_ID_FIELD = "categoryId";
+    final static String CHART_ID_FIELD  = "chartId";
+
+    final static String AREA_FACET     = "area";
+    final static String CATEGORY_FACET = "category";
+    final static String TYPE_FACET     = "type";
+    final static String STATUS_FACET   = "status";
+
+    /**
+     * The version of the message document schema.
+     * Bump this whenever the indexed fields change, to have the index re-created at start-up
+     */
+    final static int SCHEMA_VERSION     = 7;
+    final static int REINDEX_PARTITION_SIZE = 1000;
+    final static int INDEX_CHUNK_SIZE = 500;
+
+    final static ObjectMapper JSON_MAPPER = new ObjectMapper();
 
     @Inject
     EntityManager em;
@@ -103,23 +157,61 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
     @Inject
     CategoryService categoryService;
 
+    @Inject
+    MessageSearchCache messageSearchCache;
+
+    @Inject
+    MessageVoCache messageVoCache;
+
     @Inject
     @Setting(value = "messageIndexMaxMessageNo", defaultValue = "1000")
     Long maxMessageNo;
 
+    @Inject
+    @Setting(value = "messageSearchExactCountLimit", defaultValue = "0")
+    Long exactCountLimit;   // if positive, database search result counts beyond this limit are approximate
+
     @Inject
     @Setting(value = "messageIndexDir", defaultValue = "${user.home}/.msinm/msg-index", substituteSystemProperties = true)
     Path indexFolder;
 
+    @Inject
+    @Setting(value = "messageIndexDirectory", defaultValue = "fs")
+    String directoryType;   // one of "fs", "mmap", "nio", "nrt-caching" or "ram"
+
     @Inject
     @Setting(value = "messageIndexSpatialLevels", defaultValue = "11")
     Long maxSpatialLevels;  // a value of 11 results in sub-meter precision for geohash
 
     @Inject
-    @Setting(value = "messageIndexDeleteOnStartup", defaultValue = "true")
+    @Setting(value = "messageIndexSpatialDistErrPct", defaultValue = "0.025")
+    String spatialDistErrPct;  // the fraction of the shape size used as precision when indexing a shape
+
+    @Inject
+    @Setting(value = "messageIndexSpatialMinDistErr", defaultValue = "5")
+    Long spatialMinDistErr;  // the finest precision, in meters, used when indexing a shape
+
+    @Inject
+    @Setting(value = "messageIndexSimplifyTolerance", defaultValue = "0")
+    Long simplifyTolerance;  // if positive, simplified geometries with this tolerance in meters are indexed as well
+
+    @Inject
+    @Setting(value = "messageIndexDeleteOnStartup", defaultValue = "false")
     Boolean deleteOnStartup;
 
-    SpatialStrategy strategy;
+    @Inject
+    @Setting(value = "messageIndexReindexThreads", defaultValue = "4")
+    Long reindexThreads;
+
+    @Resource
+    ManagedExecutorService executorService;
+
+    @Resource
+    SessionContext ctx;
+
+    AdaptiveSpatialStrategy strategy;
+    AdaptiveSpatialStrategy simplifiedStrategy;
+    FacetsConfig facetsConfig;
     boolean allIndexed;
 
     /**
@@ -137,8 +229,19 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
         }
 
         // Initialize the spatial strategy
+        // The precision used for a shape is chosen from its size, so that large polygons
+        // and long polylines do not expand into huge numbers of prefix terms
         SpatialPrefixTree grid = new GeohashPrefixTree(SpatialContext.GEO, maxSpatialLevels.intValue());
-        strategy = new RecursivePrefixTreeStrategy(grid, LOCATION_FIELD);
+        double distErrPct = Double.parseDouble(spatialDistErrPct);
+        strategy = new AdaptiveSpatialStrategy(grid, LOCATION_FIELD, distErrPct, metersToDegrees(spatialMinDistErr));
+        if (simplifyTolerance > 0) {
+            simplifiedStrategy = new AdaptiveSpatialStrategy(grid, LOCATION_SIMPLIFIED_FIELD, distErrPct, metersToDegrees(simplifyTolerance));
+        }
+
+        // Initialize the facets. Areas and categories are indexed along with their ancestors
+        facetsConfig = new FacetsConfig();
+        facetsConfig.setMultiValued(AREA_FACET, true);
+        facetsConfig.setMultiValued(CATEGORY_FACET, true);
 
         // Check if we need to delete the old index on start-up
         if (deleteOnStartup) {
@@ -147,15 +250,42 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
             } catch (IOException e) {
                 log.error("Failed re-creating the index on startup", e);
             }
+
+        } else if (openIndex()) {
+            // The index has been resumed from its last commit, and the scheduled
+            // update will catch up with the messages changed since then
+            allIndexed = true;
+
+        } else {
+            // The index could not be resumed, so re-create it in the background via the
+            // parallel bulk re-index. NB: Invoked via the business object to run asynchronously
+            try {
+                ctx.getBusinessObject(MessageSearchService.class).recreateIndexAsync();
+            } catch (Exception e) {
+                log.error("Failed re-creating the index on startup", e);
+            }
         }
     }
 
     /**
-     * Returns if all messages have been indexed
+     * Returns if all messages have been indexed.
+     * <p>
+     * The index is never considered complete while it is being re-created,
+     * or if the latest re-creation failed
      * @return if all messages have been indexed
      */
     public boolean isAllIndexed() {
-        return allIndexed;
+        return allIndexed && !isReindexing() && !isIndexIncomplete();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Flags that all messages have been indexed
+     */
+    @Override
+    protected void reindexCompleted() {
+        allIndexed = true;
     }
 
     /**
@@ -167,22 +297,110 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
         return SEARCH_FIELD + "_" + app.getLanguage(language);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The language specific search fields have n-gram versions for infix searches.
+     */
+    @Override
+    protected boolean isNGramIndexed(String field) {
+        return field.startsWith(SEARCH_FIELD + "_");
+    }
+
     /**
      * Clean up Lucene index
      */
     @PreDestroy
     public void closeIndex() {
-        closeReader();
+        closeSearcherManager();
+        closeWriter();
+        closeDirectory();
     }
 
     /**
-     * Called every minute to update the Lucene index
+     * Called every minute to update the Lucene index.
+     * <p>
+     * Messages are re-indexed as soon as their status changes via
+     * {@linkplain MessageIndexListener}, so the scheduled update
+     * mainly serves as a catch-up safety net.
      */
     @Schedule(persistent=false, second="38", minute="*/1", hour="*", dayOfWeek="*", year="*")
     public int updateLuceneIndex() {
         return updateLuceneIndex(MAX_INDEX_COUNT, false);
     }
 
+    /**
+     * Re-indexes the messages with the given ids straight away.
+     * <p>
+     * The messages are loaded while holding the index update lock, so that a newer version of
+     * a message, indexed by the scheduled update, is never overwritten by a stale version
+     *
+     * @param ids the ids of the messages to re-index
+     * @return the number of re-indexed messages
+     */
+    public int indexMessages(List<Integer> ids) {
+        return indexEntities(() -> messageService.findByIds(ids, MessageFetchPlan.INDEX));
+    }
+
+    /**
+     * Re-indexes the messages of the event in the background, once the transaction
+     * that fired the event has committed.
+     * <p>
+     * The messages are evicted from the message cache and re-indexed in chunks of
+     * {@code INDEX_CHUNK_SIZE} messages, so that e.g. moving a large area sub-tree neither
+     * holds the update lock for long, nor loads all the messages in one go.
+     *
+     * @param event the message index event
+     */
+    @Asynchronous
+    public void indexMessagesAfterCommit(@Observes(during = TransactionPhase.AFTER_SUCCESS) MessageIndexEvent event) {
+        long t0 = System.currentTimeMillis();
+        List<Integer> ids = event.getIds();
+        for (int x = 0; x < ids.size(); x += INDEX_CHUNK_SIZE) {
+            List<Integer> chunk = ids.subList(x, Math.min(x + INDEX_CHUNK_SIZE, ids.size()));
+            messageService.evictCachedMessageIds(chunk);
+            indexMessages(chunk);
+
+            // Keep the persistence context small
+            em.clear();
+        }
+        log.info("Re-indexed " + ids.size() + " messages in " + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Invalidates the cached message search results
+     */
+    @Override
+    protected void searcherRefreshed() {
+        messageSearchCache.bumpMessagesVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected int getSchemaVersion() {
+        return SCHEMA_VERSION;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected FacetsConfig getFacetsConfig() {
+        return facetsConfig;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected DirectoryType getDirectoryType() {
+        return DirectoryType.parse(directoryType);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -195,18 +413,27 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
      * {@inheritDoc}
      */
     @Override
-    protected List<Message> findUpdatedEntities(Date fromDate, int maxCount) {
-        List<Message> messages = messageService.findUpdatedMessages(fromDate, maxCount);
+    protected List<Message> findUpdatedEntities(Date fromDate, Integer fromId, int maxCount) {
+        List<Message> messages = messageService.preloadIndexData(messageService.findUpdatedMessages(fromDate, fromId, maxCount));
 
         // The first time less that the maximum number of messages are found,
-        // we flag that the indexing is complete
-        if (messages.size() < maxCount) {
+        // we flag that the indexing is complete. During a re-index, the last-updated time
+        // is stamped before all messages have been indexed, so leave it to reindexCompleted()
+        if (messages.size() < maxCount && !isReindexing() && !isIndexIncomplete()) {
             allIndexed = true;
         }
 
         return messages;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BulkReindexSource<Message> getBulkReindexSource() {
+        return new MessageReindexSource();
+    }
+
     /**
      * Adds a shape to the document
      * @param doc the Lucene document
@@ -218,9 +445,26 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
             doc.add(f);
         }
         doc.add(new StoredField(strategy.getFieldName(), shape.toString()));
+
+        // Optionally, index a simplified version of the shape as well
+        if (simplifiedStrategy != null) {
+            Shape simplified = LuceneUtils.simplify(shape, simplifiedStrategy.getMinDistErr());
+            for (IndexableField f : simplifiedStrategy.createIndexableFields(simplified)) {
+                doc.add(f);
+            }
+        }
         return doc;
     }
 
+    /**
+     * Converts the distance in meters to degrees
+     * @param meters the distance in meters
+     * @return the distance in degrees
+     */
+    private static double metersToDegrees(long meters) {
+        return DistanceUtils.dist2Degrees(meters / 1000.0, DistanceUtils.EARTH_MEAN_RADIUS_KM);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -236,26 +480,52 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
     @Override
     protected void addEntityToDocument(Document doc, Message message) {
 
+        // Collect the language independent search values once, rather than once per language
+        List<Object> values = new ArrayList<>();
+        values.add(message.getStatus());
+
+        // Message series identifier
+        values.add(message.getSeriesIdentifier().getShortId()); // e.g. "DK-074-14"
+        values.add(message.getSeriesIdentifier().getFullId());  // e.g. "MSI-DK-074-14"
+        values.add(message.getSeriesIdentifier().getAuthority());
+        values.add(String.valueOf(message.getSeriesIdentifier().getYear()));
+        if (message.getSeriesIdentifier().getNumber() != null) {
+            values.add(String.valueOf(message.getSeriesIdentifier().getNumber()));
+        }
+
+        // References
+        message.getReferences().forEach(ref -> {
+            values.add(ref.getSeriesIdentifier().getShortId());
+            values.add(ref.getSeriesIdentifier().getFullId());
+        });
+
+        // Charts
+        message.getCharts().forEach(chart -> {
+            values.add(chart.getChartNumber());
+            values.add(chart.getInternationalNumber());
+        });
+
+        // Horizontal datum
+        values.add(message.getHorizontalDatum());
+
+        // Add language specific fields. NB: The html-to-text conversion is only performed once per desc
+        message.getDescs().forEach(desc -> {
+            values.add(desc.getTitle());
+            values.add(TextUtils.html2txt(desc.getDescription()));
+            values.add(desc.getNote());
+            values.add(desc.getOtherCategories());
+            values.add(desc.getVicinity());
+            values.add(desc.getPublication());
+            values.add(desc.getSource());
+        });
+
+        values.addAll(message.getLightsListNumbers());
+
         // For each supported language, update a search field
         for (String language : app.getLanguages()) {
             String searchField = searchField(language);
 
-            addPhraseSearchField(doc, searchField, message.getStatus());
-
-            // Message series identifier
-            addPhraseSearchField(doc, searchField, message.getSeriesIdentifier().getShortId()); // e.g. "DK-074-14"
-            addPhraseSearchField(doc, searchField, message.getSeriesIdentifier().getFullId());  // e.g. "MSI-DK-074-14"
-            addPhraseSearchField(doc, searchField, message.getSeriesIdentifier().getAuthority());
-            addPhraseSearchField(doc, searchField, String.valueOf(message.getSeriesIdentifier().getYear()));
-            if (message.getSeriesIdentifier().getNumber() != null) {
-                addPhraseSearchField(doc, searchField, String.valueOf(message.getSeriesIdentifier().getNumber()));
-            }
-
-            // References
-            message.getReferences().forEach(ref -> {
-                addPhraseSearchField(doc, searchField, ref.getSeriesIdentifier().getShortId());
-                addPhraseSearchField(doc, searchField, ref.getSeriesIdentifier().getFullId());
-            });
+            values.forEach(value -> addPhraseSearchField(doc, searchField, value));
 
             // Area
             for (Area area = message.getArea(); area != null; area = area.getParent()) {
@@ -275,29 +545,6 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
                 }
             });
 
-            // Charts
-            message.getCharts().forEach(chart -> {
-                addPhraseSearchField(doc, searchField, chart.getChartNumber());
-                addPhraseSearchField(doc, searchField, chart.getInternationalNumber());
-            });
-
-            // Horizontal datum
-            addPhraseSearchField(doc, searchField, message.getHorizontalDatum());
-
-            // Add language specific fields
-            message.getDescs().forEach(desc -> {
-                addPhraseSearchField(doc, searchField, desc.getTitle());
-                addPhraseSearchField(doc, searchField, TextUtils.html2txt(desc.getDescription()));
-                addPhraseSearchField(doc, searchField, desc.getNote());
-                addPhraseSearchField(doc, searchField, desc.getOtherCategories());
-                addPhraseSearchField(doc, searchField, desc.getVicinity());
-                addPhraseSearchField(doc, searchField, desc.getPublication());
-                addPhraseSearchField(doc, searchField, desc.getSource());
-            });
-
-            message.getLightsListNumbers()
-                    .forEach(lightsListNumber -> addPhraseSearchField(doc, searchField, lightsListNumber));
-
             // Add descriptions for locations and points associated with the message.
             message.getLocations().forEach(location -> {
                 LocationDesc locDesc = location.getDesc(language);
@@ -313,6 +560,37 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
             });
         }
 
+        // Add the fields used for filtering and sorting
+        addStringSearchField(doc, STATUS_FIELD, message.getStatus(), Field.Store.NO);
+        addStringSearchField(doc, TYPE_FIELD, message.getType(), Field.Store.NO);
+        addFacetField(doc, STATUS_FACET, message.getStatus());
+        addFacetField(doc, TYPE_FACET, message.getType());
+        addDateField(doc, CREATED_FIELD, message.getCreated());
+        addDateField(doc, UPDATED_FIELD, message.getUpdated());
+        addDateField(doc, VALID_FROM_FIELD, message.getValidFrom());
+        addSortField(doc, SERIES_YEAR_FIELD, message.getSeriesIdentifier().getYear());
+        addSortField(doc, SERIES_NUMBER_FIELD, message.getSeriesIdentifier().getNumber());
+        if (message.getArea() != null) {
+            addSortField(doc, AREA_SORT_FIELD, message.getArea().getTreeSortOrder());
+        }
+
+        // Areas and categories are indexed along with all their ancestors
+        for (Area area = message.getArea(); area != null; area = area.getParent()) {
+            addStringSearchField(doc, AREA_ID_FIELD, area.getId(), Field.Store.NO);
+            addFacetField(doc, AREA_FACET, area.getId());
+        }
+        Set<Integer> categoryIds = new HashSet<>();
+        message.getCategories().forEach(category -> {
+            for (Category cat = category; cat != null; cat = cat.getParent()) {
+                categoryIds.add(cat.getId());
+            }
+        });
+        categoryIds.forEach(id -> {
+            addStringSearchField(doc, CATEGORY_ID_FIELD, id, Field.Store.NO);
+            addFacetField(doc, CATEGORY_FACET, id);
+        });
+        message.getCharts().forEach(chart -> addStringSearchField(doc, CHART_ID_FIELD, chart.getId(), Field.Store.NO));
+
         // Add the spatial data to the index
         message.getLocations().forEach(location -> {
             try {
@@ -324,20 +602,51 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
     }
 
     /**
-     * Produces a chained lucene filter based on the location list
+     * Produces a chained lucene filter based on the location list.
+     * <p>
+     * The filter is cached using the normalized shapes as the key, so that
+     * e.g. repeated map panning and tile rendering reuse computed doc-id sets.
+     *
      * @param locations the list of locations to produce a filter for
      * @return the lucene filter or null if no locations are defiend.
      */
     public Filter getLocationFilter(List<Location> locations) throws ParseException {
+        return getLocationFilter(locations, false);
+    }
+
+    /**
+     * Produces a chained lucene filter based on the location list.
+     * <p>
+     * If simplified geometries are indexed, and {@code simplified} is true, the
+     * filter is matched against the simplified geometries. This is useful for
+     * e.g. the map, where the simplification tolerance is below the visible resolution.
+     *
+     * @param locations the list of locations to produce a filter for
+     * @param simplified whether to match against the simplified geometries or not
+     * @return the lucene filter or null if no locations are defiend.
+     */
+    public Filter getLocationFilter(List<Location> locations, boolean simplified) throws ParseException {
         if (locations.size() == 0) {
             return null;
         }
-        List<Filter> filters = new ArrayList<>();
+        SpatialStrategy spatialStrategy = (simplified && simplifiedStrategy != null) ? simplifiedStrategy : strategy;
+        List<Shape> shapes = new ArrayList<>();
         for (Location loc : locations) {
-            SpatialArgs args = new SpatialArgs(SpatialOperation.Intersects, loc.toWkt());
-            filters.add(strategy.makeFilter(args));
+            shapes.add(loc.toWkt());
         }
-        return new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.OR);
+        String key = spatialStrategy.getFieldName() + ":" + shapes.stream()
+                .map(Object::toString)
+                .sorted()
+                .collect(Collectors.joining(";"));
+
+        return getCachedFilter(key, () -> {
+            List<Filter> filters = new ArrayList<>();
+            for (Shape shape : shapes) {
+                SpatialArgs args = new SpatialArgs(SpatialOperation.Intersects, shape);
+                filters.add(spatialStrategy.makeFilter(args));
+            }
+            return new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.OR);
+        });
     }
 
     /**
@@ -357,7 +666,7 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
             // ********** Step 1: Fetch the paged list of message ID's                   ********/
             // **********************************************************************************/
 
-            List<Integer> pagedMsgIds = searchPagedMessageIds(param, result);
+            List<Integer> pagedMsgIds = searchPagedMessageIdsCached(param, result);
 
             // **********************************************************************************/
             // ********** Step 2: Fetch messages with the paged set of id's             ********/
@@ -372,20 +681,14 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
 
             } else {
 
-                // Fetch the cached messages
-                List<Message> messages = messageService.getCachedMessages(pagedMsgIds);
+                // Fetch the cached messages. In map mode, only load the data displayed on the map for non-cached messages
+                List<Message> messages = messageService.getCachedMessages(
+                        pagedMsgIds,
+                        param.isMapMode() ? MessageFetchPlan.MAP_MODE : MessageFetchPlan.CACHED_MESSAGE);
 
-                DataFilter filter;
-                if (param.isMapMode()) {
-                    filter = DataFilter.get("Message.locations", "MessageDesc.title").setLang(param.getLanguage());
-                } else {
-                    filter = DataFilter.get("Message.details", "Message.firingExercise", "Area.parent", "Category.parent").setLang(param.getLanguage());
-                }
                 result.addMessages(
-                        messages,
-                        messageService.getBookmarks(),
-                        categoryService.findOrCreateFiringExercisesCategory(),
-                        filter);
+                        renderMessages(messages, param.isMapMode(), param.getLanguage()),
+                        messageService.getBookmarks());
             }
 
             log.trace("Message search result: " + result + " in " +
@@ -399,31 +702,240 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
         }
     }
 
+    /**
+     * Returns the rendered messages, i.e. the message value objects and their serialized JSON,
+     * for the given messages, view and language.
+     * <p>
+     * The rendered messages are cached per message version for the languages supported by the application.
+     *
+     * @param messages the messages to render
+     * @param mapMode whether to render the messages for the map view or the details view
+     * @param lang the language
+     * @return the rendered messages
+     */
+    List<MessageVoCache.RenderedMessage> renderMessages(List<Message> messages, boolean mapMode, String lang) throws IOException {
+        DataFilter filter;
+        if (mapMode) {
+            filter = DataFilter.get("Message.locations", "MessageDesc.title").setLang(lang);
+        } else {
+            filter = DataFilter.get("Message.details", "Message.firingExercise", "Area.parent", "Category.parent").setLang(lang);
+        }
+        Category firingExerciseCategory = filter.include("Message.firingExercise")
+                ? categoryService.findOrCreateFiringExercisesCategory()
+                : null;
+
+        // Do not let arbitrary languages pollute the cache
+        String variant = (mapMode ? "map" : "details") + ":" + lang;
+        boolean cacheable = lang == null || Arrays.asList(app.getLanguages()).contains(lang);
+
+        List<MessageVoCache.RenderedMessage> result = new ArrayList<>();
+        for (Message message : messages) {
+            MessageVoCache.RenderedMessage renderedMessage = cacheable ? messageVoCache.get(message, variant) : null;
+            if (renderedMessage == null) {
+                MessageVo messageVo = new MessageVo(message, filter);
+                if (firingExerciseCategory != null) {
+                    messageVo.setFiringExercise(
+                            message.getCategories().stream()
+                                    .anyMatch(cat -> cat.getId().equals(firingExerciseCategory.getId())));
+                }
+                renderedMessage = new MessageVoCache.RenderedMessage(messageVo, JSON_MAPPER.writeValueAsBytes(messageVo));
+                if (cacheable) {
+                    messageVoCache.put(message, variant, renderedMessage);
+                }
+            }
+            result.add(renderedMessage);
+        }
+        return result;
+    }
+
     /**
      * Searches out the ID's of the paged result set of messages defined by the search parameters.
-     * Also fills out the total result count of the message search result.
+     * <p>
+     * The paged ID's and total result count are cached for identical search parameters,
+     * until a message is saved or the message index is updated.
      *
      * @param param the search parameters
      * @param result the search result to update with the total result count
      * @return the paged list of message ID's
      */
-    List<Integer> searchPagedMessageIds(MessageSearchParams param, MessageSearchResult result) throws Exception {
+    List<Integer> searchPagedMessageIdsCached(MessageSearchParams param, MessageSearchResult result) throws Exception {
+
+        // Bookmark searches are user specific, and are not cached
+        String key = param.isBookmarks() ? null : messageSearchCache.getKey(param);
+        MessageSearchCache.CachedPage page = (key == null) ? null : messageSearchCache.getCache().get(key);
+        if (page != null) {
+            page.copyTo(result);
+            return page.getIds();
+        }
 
-        CriteriaBuilder builder = em.getCriteriaBuilder();
-        CriteriaQuery<Tuple> tupleQuery = builder.createTupleQuery();
+        // Until the index is complete, fall back to the database
+        List<Integer> pagedMsgIds = isAllIndexed()
+                ? searchPagedMessageIdsInIndex(param, result)
+                : searchPagedMessageIds(param, result);
 
-        // Select messages
-        Root<Message> msgRoot = tupleQuery.from(Message.class);
-        msgRoot.join("seriesIdentifier", JoinType.LEFT);
-        javax.persistence.criteria.Path<SeriesIdentifier> msgId = msgRoot.get("seriesIdentifier");
+        if (key != null) {
+            messageSearchCache.getCache().put(key, new MessageSearchCache.CachedPage(pagedMsgIds, result));
+        }
+        return pagedMsgIds;
+    }
 
-        // Build the predicates based on the search parameters
-        PredicateHelper<Tuple> tuplePredicateBuilder = new PredicateHelper<>(builder, tupleQuery)
-                .equals(msgRoot.get("status"), param.getStatus())
-                .between(msgRoot.get("created"), param.getFrom(), param.getTo())
-                .between(msgRoot.get("updated"), param.getUpdatedFrom(), param.getUpdatedTo());
+    /**
+     * Searches out the ID's of the paged result set of messages defined by the search parameters
+     * using the Lucene index only. Also fills out the total result count of the message search result.
+     * <p>
+     * Filtering, sorting and paging is all handled by the index, so only the requested page
+     * of message ID's is ever collected.
+     *
+     * @param param the search parameters
+     * @param result the search result to update with the total result count
+     * @return the paged list of message ID's
+     */
+    List<Integer> searchPagedMessageIdsInIndex(MessageSearchParams param, MessageSearchResult result) throws Exception {
 
-        // Compute the type closure
+        // Filtering on an empty set of bookmarks matches nothing
+        Set<Integer> bookmarks = param.isBookmarks() ? messageService.getBookmarks() : null;
+        if (bookmarks != null && bookmarks.isEmpty()) {
+            result.setTotal(0);
+            return new ArrayList<>();
+        }
+
+        Query query = parseQuery(param.getQuery(), searchField(param.getLanguage()));
+
+        // Build the filter based on the search parameters
+        BooleanFilter filter = new BooleanFilter();
+        if (param.getStatus() != null) {
+            filter.add(termsFilter(STATUS_FIELD, Collections.singleton(param.getStatus())), BooleanClause.Occur.MUST);
+        }
+        Set<Type> types = getTypeClosure(param);
+        if (types.size() > 0) {
+            filter.add(termsFilter(TYPE_FIELD, types), BooleanClause.Occur.MUST);
+        }
+        if (param.getFrom() != null || param.getTo() != null) {
+            filter.add(dateRangeFilter(CREATED_FIELD, param.getFrom(), param.getTo()), BooleanClause.Occur.MUST);
+        }
+        if (param.getUpdatedFrom() != null || param.getUpdatedTo() != null) {
+            filter.add(dateRangeFilter(UPDATED_FIELD, param.getUpdatedFrom(), param.getUpdatedTo()), BooleanClause.Occur.MUST);
+        }
+        if (param.getAreaIds().size() > 0) {
+            filter.add(termsFilter(AREA_ID_FIELD, param.getAreaIds()), BooleanClause.Occur.MUST);
+        }
+        if (param.getCategoryIds().size() > 0) {
+            filter.add(termsFilter(CATEGORY_ID_FIELD, param.getCategoryIds()), BooleanClause.Occur.MUST);
+        }
+        if (param.getChartIds().size() > 0) {
+            filter.add(termsFilter(CHART_ID_FIELD, param.getChartIds()), BooleanClause.Occur.MUST);
+        }
+        if (bookmarks != null) {
+            filter.add(termsFilter(ID_FIELD, bookmarks), BooleanClause.Occur.MUST);
+        }
+        if (param.getLocations() != null && param.getLocations().size() > 0) {
+            filter.add(getLocationFilter(param.getLocations(), param.isMapMode()), BooleanClause.Occur.MUST);
+        }
+
+        // If a cursor is defined, fetch the hits sorted after the last message of the previous page
+        MessageSearchCursor cursor = getCursor(param);
+        FieldDoc after = null;
+        if (cursor != null) {
+            after = new FieldDoc(Integer.MAX_VALUE, Float.NaN, Arrays.stream(cursor.getKeys()).boxed().toArray());
+        }
+
+        IdPage page = searchIndex(
+                query,
+                filter.clauses().isEmpty() ? null : filter,
+                getSort(param),
+                after,
+                after != null ? 0 : param.getStartIndex(),
+                param.getMaxHits(),
+                AREA_FACET, CATEGORY_FACET, TYPE_FACET, STATUS_FACET);
+
+        // Register the total result, the facet counts and the cursor of the next page
+        result.setTotal(page.getTotal());
+        result.setFacets(page.getFacets());
+        if (page.size() == param.getMaxHits() && page.getLastDoc() != null) {
+            long[] keys = Arrays.stream(page.getLastDoc().fields)
+                    .mapToLong(key -> ((Number) key).longValue())
+                    .toArray();
+            result.setCursor(new MessageSearchCursor(param.getSortBy(), param.getSortOrder(), keys).encode());
+        }
+        return page.getIds();
+    }
+
+    /**
+     * Returns the parsed cursor of the search parameters, or null if no cursor is defined.
+     * <p>
+     * A cursor issued for a different sort order is rejected, since falling back to the
+     * first page would make clients page through the same messages over and over
+     *
+     * @param param the search parameters
+     * @return the parsed cursor or null
+     * @throws IllegalArgumentException if the cursor is invalid or was issued for a different sort order
+     */
+    private MessageSearchCursor getCursor(MessageSearchParams param) {
+        return MessageSearchCursor.parse(param);
+    }
+
+    /**
+     * Returns the Lucene sort order defined by the search parameters.
+     * The message id is always used as the final tie-breaker
+     *
+     * @param param the search parameters
+     * @return the sort order
+     */
+    private Sort getSort(MessageSearchParams param) {
+        boolean reverse = param.getSortOrder() == MessageSearchParams.SortOrder.DESC;
+        SortField idSort = new SortField(ID_FIELD, SortField.Type.LONG, reverse);
+        switch (param.getSortBy()) {
+            case DATE:
+                return new Sort(new SortField(VALID_FROM_FIELD, SortField.Type.LONG, reverse), idSort);
+            case AREA:
+                return new Sort(new SortField(AREA_SORT_FIELD, SortField.Type.LONG, reverse), idSort);
+            default:
+                return new Sort(
+                        new SortField(SERIES_YEAR_FIELD, SortField.Type.LONG, reverse),
+                        new SortField(SERIES_NUMBER_FIELD, SortField.Type.LONG, reverse),
+                        idSort);
+        }
+    }
+
+    /**
+     * Returns a filter matching any of the given values of the field
+     *
+     * @param field the field
+     * @param values the values to match
+     * @return the filter
+     */
+    private Filter termsFilter(String field, Collection<?> values) {
+        return new TermsFilter(field, values.stream()
+                .map(value -> new BytesRef(value.toString()))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Returns a filter matching the date range of the field.
+     * Either of the from and to dates may be null
+     *
+     * @param field the field
+     * @param from the from date (inclusive)
+     * @param to the to date (inclusive)
+     * @return the filter
+     */
+    private Filter dateRangeFilter(String field, Date from, Date to) {
+        return NumericRangeFilter.newLongRange(
+                field,
+                from == null ? null : from.getTime(),
+                to == null ? null : to.getTime(),
+                true,
+                true);
+    }
+
+    /**
+     * Returns the message types of the search parameters, including the
+     * types belonging to the main types of the search parameters
+     *
+     * @param param the search parameters
+     * @return the message types
+     */
+    private Set<Type> getTypeClosure(MessageSearchParams param) {
         Set<Type> types = new HashSet<>();
         types.addAll(param.getTypes());
         param.getMainTypes().forEach(mt -> {
@@ -433,127 +945,291 @@ public class MessageSearchService extends AbstractLuceneIndex<Message> {
                 }
             }
         });
+        return types;
+    }
 
-        if (types.size() > 0) {
-            tuplePredicateBuilder.in(msgRoot.get("type"), types);
-        }
+    /**
+     * Searches out the ID's of the paged result set of messages defined by the search parameters
+     * using the database, and the Lucene index for free text and location searches only.
+     * Also fills out the total result count of the message search result.
+     * <p>
+     * The total count and the page are fetched using two separate queries, and the
+     * paging is pushed to the database, so that only the page of ID's is transferred.
+     *
+     * @param param the search parameters
+     * @param result the search result to update with the total result count
+     * @return the paged list of message ID's
+     */
+    List<Integer> searchPagedMessageIds(MessageSearchParams param, MessageSearchResult result) throws Exception {
+
+        CriteriaBuilder builder = em.getCriteriaBuilder();
 
         // Search the Lucene index for free text search and location information
+        List<Integer> indexIds = null;
         if (param.requiresLuceneSearch()) {
             Filter filter = null;
             if (param.getLocations() != null) {
-                filter = getLocationFilter(param.getLocations());
+                filter = getLocationFilter(param.getLocations(), param.isMapMode());
             }
-            List<Long> ids = searchIndex(param.getQuery(), searchField(param.getLanguage()), filter, Integer.MAX_VALUE);
-            tuplePredicateBuilder.in(msgRoot.get("id"), ids);
+            indexIds = searchIndex(param.getQuery(), searchField(param.getLanguage()), filter, Integer.MAX_VALUE).toList();
         }
 
         // Filter on bookmarked items
-        if (param.isBookmarks()) {
-            tuplePredicateBuilder.in(msgRoot.get("id"), messageService.getBookmarks());
-        }
+        Set<Integer> bookmarks = param.isBookmarks() ? messageService.getBookmarks() : null;
 
-        // If we search by area or sort by area, join over...
-        javax.persistence.criteria.Path<Area> areaRoot = null;
-        if (param.getSortBy() == MessageSearchParams.SortBy.AREA || param.getAreaIds().size() > 0) {
+        // **********************************************************************************/
+        // ********** Fetch the page of message ID's                                 ********/
+        // **********************************************************************************/
+
+        CriteriaQuery<Tuple> tupleQuery = builder.createTupleQuery();
 
+        // Select messages
+        Root<Message> msgRoot = tupleQuery.from(Message.class);
+        msgRoot.join("seriesIdentifier", JoinType.LEFT);
+        javax.persistence.criteria.Path<SeriesIdentifier> msgId = msgRoot.get("seriesIdentifier");
+
+        // If we sort by area, join over...
+        javax.persistence.criteria.Path<Area> areaRoot = null;
+        if (param.getSortBy() == MessageSearchParams.SortBy.AREA) {
             msgRoot.join("area", JoinType.LEFT);
             areaRoot = msgRoot.get("area");
+        }
 
-            // Filter on areas
-            if (param.getAreaIds().size() > 0) {
-
-                // Note to self: A more efficient way would be to join on area and match
-                // the lineage of the joined area with that of the message area...
-                Predicate[] areaMatch = new Predicate[param.getAreaIds().size()];
-                Iterator<Integer> i = param.getAreaIds().iterator();
-                for (int x = 0; x < areaMatch.length; x++) {
-                    String lineage = em.find(Area.class, i.next()).getLineage();
-                    areaMatch[x] = builder.like(areaRoot.get("lineage"), lineage + "%");
-                }
-                tuplePredicateBuilder.add(builder.or(areaMatch));
-            }
+        // Determine the sort keys. As in the index, undefined sort values are treated as 0
+        List<Expression<? extends Comparable<?>>> sortKeys = new ArrayList<>();
+        if (MessageSearchParams.SortBy.DATE == param.getSortBy()) {
+            sortKeys.add(builder.coalesce(msgRoot.<Date>get("validFrom"), new Date(0)));
+        } else if (MessageSearchParams.SortBy.ID == param.getSortBy()) {
+            sortKeys.add(builder.coalesce(msgId.<Integer>get("year"), 0));
+            sortKeys.add(builder.coalesce(msgId.<Integer>get("number"), 0));
+        } else if (MessageSearchParams.SortBy.AREA == param.getSortBy()) {
+            sortKeys.add(builder.coalesce(areaRoot.<Integer>get("treeSortOrder"), 0));
+        }
+        sortKeys.add(msgRoot.<Integer>get("id"));
+
+        // Complete the query and fetch the sort keys, the last of which is the message id
+        tupleQuery.multiselect(sortKeys.toArray(new Selection<?>[sortKeys.size()]))
+                .distinct(true);
+
+        // If a cursor is defined, fetch the messages sorted after the last message of the previous page
+        boolean asc = param.getSortOrder() == MessageSearchParams.SortOrder.ASC;
+        MessageSearchCursor cursor = getCursor(param);
+        Predicate[] predicates = searchPredicates(builder, tupleQuery, msgRoot, param, indexIds, bookmarks);
+        if (cursor != null) {
+            predicates = Arrays.copyOf(predicates, predicates.length + 1);
+            predicates[predicates.length - 1] = keysetPredicate(builder, sortKeys, cursorValues(cursor), asc);
         }
+        tupleQuery.where(predicates);
 
-        // Filter on categories
-        if (param.getCategoryIds().size() > 0) {
+        // Sort the query
+        tupleQuery.orderBy(sortKeys.stream()
+                .map(key -> asc ? builder.asc(key) : builder.desc(key))
+                .collect(Collectors.toList()));
 
-            Join<Message, Category> categories = msgRoot.join("categories", JoinType.LEFT);
-            Predicate[] categoryMatch = new Predicate[param.getCategoryIds().size()];
-            Iterator<Integer> i = param.getCategoryIds().iterator();
-            for (int x = 0; x < categoryMatch.length; x++) {
-                String lineage = em.find(Category.class, i.next()).getLineage();
-                categoryMatch[x] = builder.like(categories.get("lineage"), lineage + "%");
+        // Execute the page query
+        List<Tuple> tuples = em
+                .createQuery(tupleQuery)
+                .setFirstResult(cursor != null ? 0 : param.getStartIndex())
+                .setMaxResults(param.getMaxHits())
+                .getResultList();
+        List<Integer> msgIds = tuples.stream()
+                .map(t -> (Integer) t.get(sortKeys.size() - 1))
+                .collect(Collectors.toList());
+
+        // Register the cursor of the next page
+        if (tuples.size() > 0 && tuples.size() == param.getMaxHits()) {
+            Tuple last = tuples.get(tuples.size() - 1);
+            long[] keys = new long[sortKeys.size()];
+            for (int x = 0; x < keys.length; x++) {
+                Object key = last.get(x);
+                keys[x] = (key instanceof Date) ? ((Date) key).getTime() : ((Number) key).longValue();
             }
-            tuplePredicateBuilder.add(builder.or(categoryMatch));
+            result.setCursor(new MessageSearchCursor(param.getSortBy(), param.getSortOrder(), keys).encode());
         }
 
-        // Filter on charts
-        if (param.getChartIds().size() > 0) {
+        // **********************************************************************************/
+        // ********** Compute the total result count                                 ********/
+        // **********************************************************************************/
+
+        if (cursor == null && msgIds.size() > 0 && msgIds.size() < param.getMaxHits()) {
+            // A partially filled page is the last page, so no need to count
+            result.setTotal(param.getStartIndex() + msgIds.size());
+
+        } else if (exactCountLimit > 0) {
+            // Count the distinct ID's up to the limit, and flag the total as approximate beyond that
+            CriteriaQuery<Integer> idQuery = builder.createQuery(Integer.class);
+            Root<Message> idRoot = idQuery.from(Message.class);
+            idQuery.select(idRoot.get("id"))
+                    .distinct(true)
+                    .where(searchPredicates(builder, idQuery, idRoot, param, indexIds, bookmarks));
+            int count = em.createQuery(idQuery)
+                    .setMaxResults(exactCountLimit.intValue() + 1)
+                    .getResultList()
+                    .size();
+            result.setTotal(Math.min(count, exactCountLimit.intValue()));
+            result.setTotalApproximate(count > exactCountLimit);
+
+        } else {
+            CriteriaQuery<Long> countQuery = builder.createQuery(Long.class);
+            Root<Message> countRoot = countQuery.from(Message.class);
+            countQuery.select(builder.countDistinct(countRoot))
+                    .where(searchPredicates(builder, countQuery, countRoot, param, indexIds, bookmarks));
+            result.setTotal(em.createQuery(countQuery).getSingleResult().intValue());
+        }
 
-            Join<Message, Chart> charts = msgRoot.join("charts", JoinType.LEFT);
-            Predicate[] chartMatch = new Predicate[param.getChartIds().size()];
-            Iterator<Integer> i = param.getChartIds().iterator();
-            for (int x = 0; x < chartMatch.length; x++) {
-                chartMatch[x] = builder.equal(charts.get("id"), i.next());
+        return msgIds;
+    }
+
+    /**
+     * Returns the sort key values of the cursor, typed as the sort keys of the database message search
+     *
+     * @param cursor the cursor
+     * @return the sort key values of the cursor
+     */
+    private List<Comparable<?>> cursorValues(MessageSearchCursor cursor) {
+        List<Comparable<?>> values = new ArrayList<>();
+        long[] keys = cursor.getKeys();
+        for (int x = 0; x < keys.length; x++) {
+            if (x == 0 && cursor.getSortBy() == MessageSearchParams.SortBy.DATE) {
+                values.add(new Date(keys[x]));
+            } else {
+                values.add((int) keys[x]);
             }
-            tuplePredicateBuilder.add(builder.or(chartMatch));
         }
+        return values;
+    }
 
-        // Determine the fields to fetch
-        List<Selection<?>> fields = new ArrayList<>();
-        fields.add(msgRoot.get("id"));
-        if (MessageSearchParams.SortBy.DATE == param.getSortBy()) {
-            fields.add(msgRoot.get("validFrom"));
-        } else if (MessageSearchParams.SortBy.ID == param.getSortBy()) {
-            fields.add(msgId.get("year"));
-            fields.add(msgId.get("number"));
-        } else if (MessageSearchParams.SortBy.AREA == param.getSortBy()) {
-            fields.add(areaRoot.get("treeSortOrder"));
+    /**
+     * Returns a predicate that matches rows sorted after the given sort key values, i.e.
+     * {@code k1 > v1 OR (k1 = v1 AND (k2 > v2 OR (k2 = v2 AND ...)))} for ascending sort order
+     *
+     * @param builder the criteria builder
+     * @param keys the sort keys
+     * @param values the sort key values of the last row of the previous page
+     * @param asc whether the sort order is ascending or descending
+     * @return the keyset predicate
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate keysetPredicate(CriteriaBuilder builder, List<Expression<? extends Comparable<?>>> keys, List<Comparable<?>> values, boolean asc) {
+        Predicate predicate = null;
+        for (int x = keys.size() - 1; x >= 0; x--) {
+            Expression key = keys.get(x);
+            Comparable value = values.get(x);
+            Predicate after = asc ? builder.greaterThan(key, value) : builder.lessThan(key, value);
+            predicate = (predicate == null) ? after : builder.or(after, builder.and(builder.equal(key, value), predicate));
         }
+        return predicate;
+    }
 
-        // Complete the query and fetch the message id's (and validFrom, year and number for sorting)
-        tupleQuery.multiselect(fields.toArray(new Selection<?>[fields.size()]))
-                .distinct(true)
-                .where(tuplePredicateBuilder.where());
+    /**
+     * Builds the predicates of the database message search, used both by the page and count queries
+     *
+     * @param builder the criteria builder
+     * @param query the criteria query
+     * @param msgRoot the message root of the query
+     * @param param the search parameters
+     * @param indexIds if defined, the message ID's matching the Lucene index search
+     * @param bookmarks if defined, the bookmarked message ID's
+     * @return the search predicates
+     */
+    private <T> Predicate[] searchPredicates(CriteriaBuilder builder, CriteriaQuery<T> query, Root<Message> msgRoot,
+                                             MessageSearchParams param, List<Integer> indexIds, Set<Integer> bookmarks) {
 
-        // Sort the query
-        if (MessageSearchParams.SortBy.DATE == param.getSortBy()) {
-            if (param.getSortOrder() == MessageSearchParams.SortOrder.ASC) {
-                tupleQuery.orderBy(builder.asc(msgRoot.get("validFrom")), builder.asc(msgRoot.get("id")));
-            } else {
-                tupleQuery.orderBy(builder.desc(msgRoot.get("validFrom")), builder.desc(msgRoot.get("id")));
-            }
-        } else if (MessageSearchParams.SortBy.ID == param.getSortBy()) {
-            if (param.getSortOrder() == MessageSearchParams.SortOrder.ASC) {
-                tupleQuery.orderBy(builder.asc(msgId.get("year")), builder.asc(msgId.get("number")), builder.asc(msgRoot.get("id")));
-            } else {
-                tupleQuery.orderBy(builder.desc(msgId.get("year")), builder.desc(msgId.get("number")), builder.desc(msgRoot.get("id")));
-            }
-        } else if (MessageSearchParams.SortBy.AREA == param.getSortBy()) {
-            if (param.getSortOrder() == MessageSearchParams.SortOrder.ASC) {
-                tupleQuery.orderBy(builder.asc(areaRoot.get("treeSortOrder")), builder.asc(msgRoot.get("id")));
-            } else {
-                tupleQuery.orderBy(builder.desc(areaRoot.get("treeSortOrder")), builder.desc(msgRoot.get("id")));
-            }
+        // Build the predicates based on the search parameters
+        PredicateHelper<T> predicateBuilder = new PredicateHelper<>(builder, query)
+                .equals(msgRoot.get("status"), param.getStatus())
+                .between(msgRoot.get("created"), param.getFrom(), param.getTo())
+                .between(msgRoot.get("updated"), param.getUpdatedFrom(), param.getUpdatedTo());
+
+        // Compute the type closure
+        Set<Type> types = getTypeClosure(param);
+
+        if (types.size() > 0) {
+            predicateBuilder.in(msgRoot.get("type"), types);
         }
 
-        // Execute the query
-        List<Tuple> totalResult = em
-                .createQuery(tupleQuery)
-                .getResultList();
+        // Restrict to the result of the Lucene index search
+        if (indexIds != null) {
+            predicateBuilder.in(msgRoot.get("id"), indexIds);
+        }
+
+        // Filter on bookmarked items
+        if (bookmarks != null) {
+            predicateBuilder.in(msgRoot.get("id"), bookmarks);
+        }
+
+        // Filter on areas, by matching the selected area ID's against the ancestors of the message area
+        if (param.getAreaIds().size() > 0) {
+            Join<Message, Area> area = msgRoot.join("area", JoinType.LEFT);
+            Join<Area, Integer> areaAncestors = area.join("ancestorIds", JoinType.LEFT);
+            predicateBuilder.in(areaAncestors, param.getAreaIds());
+        }
 
-        // Register the total result
-        result.setTotal(totalResult.size());
+        // Filter on categories, by matching the selected category ID's against the ancestors of the message categories
+        if (param.getCategoryIds().size() > 0) {
+            Join<Message, Category> categories = msgRoot.join("categories", JoinType.LEFT);
+            Join<Category, Integer> categoryAncestors = categories.join("ancestorIds", JoinType.LEFT);
+            predicateBuilder.in(categoryAncestors, param.getCategoryIds());
+        }
 
-        List<Integer> msgIds = totalResult.stream()
-                    .map(t -> (Integer) t.get(0))
-                    .collect(Collectors.toList());
+        // Filter on charts
+        if (param.getChartIds().size() > 0) {
+            Join<Message, Chart> charts = msgRoot.join("charts", JoinType.LEFT);
+            predicateBuilder.in(charts.get("id"), param.getChartIds());
+        }
 
-        // Extract and return the paged sub-list
-        return msgIds.subList(
-                Math.min(param.getStartIndex(), msgIds.size()),
-                Math.min(param.getStartIndex() + param.getMaxHits(), msgIds.size()));
+        return predicateBuilder.where();
     }
 
+    /**
+     * The source of the messages used for bulk re-indexing.
+     * <p>
+     * The message id span is split into partitions of {@code REINDEX_PARTITION_SIZE} ids,
+     * which are streamed by the container-managed executor service.
+     */
+    class MessageReindexSource implements BulkReindexSource<Message> {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<IdRange> getPartitions() {
+            Object[] idRangeAndCount = messageService.findIdRangeAndCount();
+            getReindexStatus().setTotalCount(((Number) idRangeAndCount[2]).intValue());
+
+            List<IdRange> partitions = new ArrayList<>();
+            if (idRangeAndCount[0] != null) {
+                int minId = ((Number) idRangeAndCount[0]).intValue();
+                int maxId = ((Number) idRangeAndCount[1]).intValue();
+                for (int fromId = minId; fromId <= maxId; fromId += REINDEX_PARTITION_SIZE) {
+                    partitions.add(new IdRange(fromId, Math.min(fromId + REINDEX_PARTITION_SIZE, maxId + 1)));
+                }
+            }
+            return partitions;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void streamEntities(IdRange idRange, Consumer<Message> consumer) {
+            messageService.streamMessages(idRange.getFromId(), idRange.getToId(), consumer);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ManagedExecutorService getExecutor() {
+            return executorService;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getThreadCount() {
+            return reindexThreads.intValue();
+        }
+    }
 }
@@ -17,6 +17,7 @@ package dk.dma.msinm.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import dk.dma.msinm.common.MsiNmApp;
+import dk.dma.msinm.common.cache.Caches;
 import dk.dma.msinm.common.db.Sql;
 import dk.dma.msinm.common.model.DataFilter;
 import dk.dma.msinm.common.repo.RepoFileVo;
@@ -32,9 +33,11 @@ import dk.dma.msinm.model.Area;
 import dk.dma.msinm.model.Bookmark;
 import dk.dma.msinm.model.Category;
 import dk.dma.msinm.model.Chart;
+import dk.dma.msinm.model.Location;
 import dk.dma.msinm.model.Message;
 import dk.dma.msinm.model.MessageDesc;
 import dk.dma.msinm.model.MessageHistory;
+import dk.dma.msinm.model.Point;
 import dk.dma.msinm.model.Reference;
 import dk.dma.msinm.model.SeriesIdType;
 import dk.dma.msinm.model.SeriesIdentifier;
@@ -44,6 +47,10 @@ import dk.dma.msinm.user.UserService;
 import dk.dma.msinm.vo.MessageHistoryVo;
 import dk.dma.msinm.vo.MessageVo;
 import org.apache.commons.lang.StringUtils;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.infinispan.Cache;
 import org.jboss.ejb3.annotation.SecurityDomain;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -58,6 +65,7 @@ import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
 import javax.ejb.TransactionAttribute;
 import javax.ejb.TransactionAttributeType;
+import javax.enterprise.event.Event;
 import javax.inject.Inject;
 import javax.jms.JMSContext;
 import javax.jms.Topic;
@@ -65,13 +73,17 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -84,6 +96,8 @@ public class MessageService extends BaseService {
 
     public static String MESSAGE_REPO_FOLDER = "messages";
     public static final DataFilter CACHED_MESSAGE_DATA = DataFilter.get("Message.details", "Area.parent", "Category.parent");
+    public static final int STREAM_FETCH_SIZE = 100;
+    public static final int FETCH_CHUNK_SIZE = 500;
 
     @Inject
     Logger log;
@@ -100,6 +114,12 @@ public class MessageService extends BaseService {
     @Inject
     MessageCache messageCache;
 
+    @Inject
+    MessageVoCache messageVoCache;
+
+    @Inject
+    Event<MessageSavedEvent> messageSavedEvent;
+
     @Inject
     BookmarkCache bookmarkCache;
 
@@ -169,11 +189,15 @@ public class MessageService extends BaseService {
         // Save the message
         message = saveEntity(message);
 
-        // If it is not a new message, evict it from the message cache
+        // If it is not a new message, evict it from the message cache.
+        // NB: The message is evicted once more after commit by the MessageSavedEvent observer
         if (wasPersisted) {
             evictCachedMessage(message);
         }
 
+        // Invalidate cached message search results once the transaction has committed
+        messageSavedEvent.fire(new MessageSavedEvent(message.getId()));
+
         // Save a MessageHistory entity for the message
         saveHistory(message);
 
@@ -423,6 +447,58 @@ public class MessageService extends BaseService {
         return getByPrimaryKey(Message.class, id);
     }
 
+    /**
+     * Returns the messages with the given ids.
+     * <p>
+     * The messages are looked up in chunks of {@code FETCH_CHUNK_SIZE} ids
+     *
+     * @param ids the ids of the messages
+     * @return the messages with the given ids
+     */
+    public List<Message> findByIds(List<Integer> ids) {
+        List<Message> messages = new ArrayList<>();
+        if (ids == null) {
+            return messages;
+        }
+        for (int x = 0; x < ids.size(); x += FETCH_CHUNK_SIZE) {
+            messages.addAll(em
+                    .createNamedQuery("Message.findByIds", Message.class)
+                    .setParameter("ids", ids.subList(x, Math.min(x + FETCH_CHUNK_SIZE, ids.size())))
+                    .getResultList());
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the messages with the given ids, loaded according to the given fetch plan.
+     * <p>
+     * The root query fetch-joins the associations of the entity graph of the fetch plan,
+     * whereupon the remaining associations of the fetch plan are bulk-loaded via
+     * {@linkplain #preload(List, MessageFetchPlan)}.
+     * The messages are looked up and bulk-loaded in chunks of {@code FETCH_CHUNK_SIZE} ids.
+     *
+     * @param ids the ids of the messages
+     * @param fetchPlan the fetch plan to use
+     * @return the messages with the given ids
+     */
+    public List<Message> findByIds(List<Integer> ids, MessageFetchPlan fetchPlan) {
+        List<Message> messages = new ArrayList<>();
+        if (ids == null) {
+            return messages;
+        }
+        for (int x = 0; x < ids.size(); x += FETCH_CHUNK_SIZE) {
+            List<Message> chunk = em
+                    .createNamedQuery("Message.findByIds", Message.class)
+                    .setParameter("ids", ids.subList(x, Math.min(x + FETCH_CHUNK_SIZE, ids.size())))
+                    .setHint("javax.persistence.loadgraph", em.getEntityGraph(fetchPlan.getEntityGraph()))
+                    .getResultList();
+
+            // Fetch-joining the descs collection yields a row per desc
+            messages.addAll(preload(new ArrayList<>(new LinkedHashSet<>(chunk)), fetchPlan));
+        }
+        return messages;
+    }
+
     /**
      * Finds the message by the given message series values
      *
@@ -511,20 +587,180 @@ public class MessageService extends BaseService {
     }
 
     /**
-     * Returns all messages updated after the given date
+     * Returns the messages updated after the given (updated, id) keyset, ordered by updated time and id.
+     * <p>
+     * These are the messages updated after the given date, and the messages updated exactly
+     * at the given date with an id greater than the given id.
      *
      * @param date     the date
+     * @param id       the id of the last message returned for the date, or null to include all messages updated at the date
      * @param maxCount the max number of entries to return
-     * @return all messages updated after the given date
+     * @return the messages updated after the given keyset
      */
-    public List<Message> findUpdatedMessages(Date date, int maxCount) {
+    public List<Message> findUpdatedMessages(Date date, Integer id, int maxCount) {
         return em
                 .createNamedQuery("Message.findUpdateMessages", Message.class)
                 .setParameter("date", date)
+                .setParameter("id", (id == null) ? Integer.MIN_VALUE : id)
                 .setMaxResults(maxCount)
                 .getResultList();
     }
 
+    /**
+     * Returns the minimum id, the maximum id and the number of messages.
+     * The minimum and maximum ids are null if there are no messages.
+     *
+     * @return the minimum id, the maximum id and the number of messages
+     */
+    public Object[] findIdRangeAndCount() {
+        return em
+                .createNamedQuery("Message.findIdRangeAndCount", Object[].class)
+                .getSingleResult();
+    }
+
+    /**
+     * Streams all messages with an id in the range [fromId, toId) to the consumer, ordered by id.
+     * <p>
+     * The messages are read via a forward-only scrollable result set in chunks of
+     * {@code STREAM_FETCH_SIZE} messages. The index data of each chunk is bulk-loaded via
+     * {@linkplain #preloadIndexData(List)}, and the persistence context is cleared after each
+     * chunk, so only a small number of messages are held in memory at a time.
+     * Hence, the consumer should not hold on to the messages.
+     *
+     * @param fromId the first message id (inclusive)
+     * @param toId the last message id (exclusive)
+     * @param consumer the message consumer
+     */
+    public void streamMessages(int fromId, int toId, Consumer<Message> consumer) {
+        Session session = em.unwrap(Session.class);
+        ScrollableResults results = session
+                .getNamedQuery("Message.findByIdRange")
+                .setParameter("fromId", fromId)
+                .setParameter("toId", toId)
+                .setFetchSize(STREAM_FETCH_SIZE)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            List<Message> chunk = new ArrayList<>(STREAM_FETCH_SIZE);
+            boolean more = true;
+            while (more) {
+                more = results.next();
+                if (more) {
+                    chunk.add((Message) results.get(0));
+                }
+
+                if (chunk.size() == STREAM_FETCH_SIZE || (!more && !chunk.isEmpty())) {
+                    preloadIndexData(chunk).forEach(consumer);
+
+                    // Keep the persistence context small
+                    chunk.clear();
+                    session.clear();
+                }
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * Bulk-loads the data used for indexing the given messages.
+     * <p>
+     * Use this for messages not loaded via {@linkplain #findByIds(List, MessageFetchPlan)},
+     * e.g. streamed messages, in which case the descs have not been fetched by an entity graph.
+     *
+     * @param messages the messages to load the index data for
+     * @return the messages
+     */
+    public List<Message> preloadIndexData(List<Message> messages) {
+        fetch("Message.fetchDescs", messages.stream()
+                .map(Message::getId)
+                .collect(Collectors.toList()));
+        return preload(messages, MessageFetchPlan.INDEX);
+    }
+
+    /**
+     * Bulk-loads the data of the given messages, as defined by the fetch plan.
+     * <p>
+     * Rather than lazy-loading the associations of each message, which amounts to a
+     * number of queries per message, each association is fetched for all the
+     * messages using a single fetch-join query per chunk of {@code FETCH_CHUNK_SIZE} messages.
+     *
+     * @param messages the messages to load the data for
+     * @param fetchPlan the fetch plan to use
+     * @return the messages
+     */
+    public List<Message> preload(List<Message> messages, MessageFetchPlan fetchPlan) {
+        for (int x = 0; x < messages.size(); x += FETCH_CHUNK_SIZE) {
+            preloadChunk(messages.subList(x, Math.min(x + FETCH_CHUNK_SIZE, messages.size())), fetchPlan);
+        }
+        return messages;
+    }
+
+    /**
+     * Bulk-loads the data of the given chunk of messages, as defined by the fetch plan.
+     *
+     * @param messages the messages to load the data for
+     * @param fetchPlan the fetch plan to use
+     */
+    private void preloadChunk(List<Message> messages, MessageFetchPlan fetchPlan) {
+        List<Integer> ids = messages.stream()
+                .map(Message::getId)
+                .collect(Collectors.toList());
+        fetchPlan.getFetchQueries().forEach(queryName -> fetch(queryName, ids));
+
+        // Locations and their points
+        if (fetchPlan.isFetchLocations()) {
+            List<Location> locations = messages.stream()
+                    .flatMap(msg -> msg.getLocations().stream())
+                    .collect(Collectors.toList());
+            List<Integer> locationIds = locations.stream()
+                    .map(Location::getId)
+                    .collect(Collectors.toList());
+            fetch("Location.fetchDescs", locationIds);
+            fetch("Location.fetchPoints", locationIds);
+            fetch("Point.fetchDescs", locations.stream()
+                    .flatMap(loc -> loc.getPoints().stream())
+                    .map(Point::getId)
+                    .collect(Collectors.toList()));
+        }
+
+        // The area and category parents are eagerly loaded, so just fetch the descs of the ancestor chains
+        if (fetchPlan.isFetchAncestors()) {
+            Set<Integer> areaIds = new HashSet<>();
+            Set<Integer> categoryIds = new HashSet<>();
+            messages.forEach(msg -> {
+                for (Area area = msg.getArea(); area != null; area = area.getParent()) {
+                    areaIds.add(area.getId());
+                }
+                msg.getCategories().forEach(category -> {
+                    for (Category cat = category; cat != null; cat = cat.getParent()) {
+                        categoryIds.add(cat.getId());
+                    }
+                });
+            });
+            fetch("Area.fetchDescs", new ArrayList<>(areaIds));
+            fetch("Category.fetchDescs", new ArrayList<>(categoryIds));
+        }
+    }
+
+    /**
+     * Executes the given fetch-join named query for the given ids,
+     * which initializes the fetched associations of the managed entities.
+     * <p>
+     * The ids are bound in chunks of {@code FETCH_CHUNK_SIZE}, to keep the "in" lists within
+     * the limits of the database
+     *
+     * @param queryName the name of the fetch-join query
+     * @param ids the ids of the entities to fetch the association for
+     */
+    private void fetch(String queryName, List<Integer> ids) {
+        for (int x = 0; x < ids.size(); x += FETCH_CHUNK_SIZE) {
+            em.createNamedQuery(queryName)
+                    .setParameter("ids", ids.subList(x, Math.min(x + FETCH_CHUNK_SIZE, ids.size())))
+                    .getResultList();
+        }
+    }
+
     /**
      * Returns all published messages that have the given category or sub-categories of the given category
      *
@@ -810,33 +1046,76 @@ public class MessageService extends BaseService {
      * @return the cached message
      */
     public Message getCachedMessage(Integer id) {
-        Message message = messageCache.getCache().get(id);
-        if (message == null) {
-            message = findById(id);
-            if (message != null) {
-                message.preload(CACHED_MESSAGE_DATA);
-                em.detach(message);
-                messageCache.getCache().put(id, message);
-            }
-        }
-        return message;
+        List<Message> messages = getCachedMessages(Collections.singletonList(id));
+        return messages.isEmpty() ? null : messages.get(0);
     }
 
     /**
      * Fetches and caches the messages with the given ids.
-     * Related data structures, such as locations are pre-fetched for the message
+     * <p>
+     * The messages not already cached are loaded in bulk, with their related data structures,
+     * such as locations, fetched using one query per association rather than per message.
+     *
      * @param ids the id of the message
-     * @return the cached messages
+     * @return the cached messages, in the order of the ids
      */
     public List<Message> getCachedMessages(List<Integer> ids) {
-        List<Message> messages = new ArrayList<>();
+        return getCachedMessages(ids, MessageFetchPlan.CACHED_MESSAGE);
+    }
+
+    /**
+     * Returns the messages with the given ids, using the cached messages where available.
+     * <p>
+     * The messages not already cached are loaded in bulk using the given fetch plan.
+     * Only messages loaded using the {@code CACHED_MESSAGE} fetch plan are added to the cache,
+     * since other fetch plans only load the part of the message data used by a specific view.
+     *
+     * @param ids the id of the message
+     * @param fetchPlan the fetch plan used for loading messages not already cached
+     * @return the messages, in the order of the ids
+     */
+    public List<Message> getCachedMessages(List<Integer> ids, MessageFetchPlan fetchPlan) {
+        Cache<Integer, Message> cache = messageCache.getCache();
+
+        // Look up the cached messages and collect the misses
+        Map<Integer, Message> messageLookup = new HashMap<>();
+        Set<Integer> missing = new LinkedHashSet<>();
         ids.forEach(id -> {
-            Message message = getCachedMessage(id);
+            Message message = cache.get(id);
             if (message != null) {
-                messages.add(message);
+                messageLookup.put(id, message);
+            } else {
+                missing.add(id);
             }
         });
-        return messages;
+
+        // Load and detach the missing messages in bulk
+        if (!missing.isEmpty()) {
+            List<Integer> missingIds = new ArrayList<>(missing);
+            Map<Integer, Message> loaded = new HashMap<>();
+            for (int x = 0; x < missingIds.size(); x += STREAM_FETCH_SIZE) {
+                List<Integer> chunk = missingIds.subList(x, Math.min(x + STREAM_FETCH_SIZE, missingIds.size()));
+                List<Message> messages = findByIds(chunk, fetchPlan);
+                if (fetchPlan == MessageFetchPlan.CACHED_MESSAGE) {
+                    // Preload all messages of the chunk before detaching any, since they share e.g. areas
+                    messages.forEach(message -> message.preload(CACHED_MESSAGE_DATA));
+                }
+                messages.forEach(message -> {
+                    em.detach(message);
+                    loaded.put(message.getId(), message);
+                });
+            }
+            if (fetchPlan == MessageFetchPlan.CACHED_MESSAGE) {
+                // Only populate the local cache. Other cluster nodes load the messages themselves
+                Caches.localWrites(cache).putAll(loaded);
+            }
+            messageLookup.putAll(loaded);
+        }
+
+        return ids.stream()
+                .map(messageLookup::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
     /**
@@ -846,6 +1125,7 @@ public class MessageService extends BaseService {
     public void evictCachedMessageId(Integer id) {
         if (id != null) {
             messageCache.getCache().remove(id);
+            messageVoCache.getCache().remove(id);
         }
     }
 
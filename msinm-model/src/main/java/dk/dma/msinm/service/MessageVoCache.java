@@ -0,0 +1,188 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import dk.dma.msinm.common.cache.BaseCache;
+import dk.dma.msinm.common.cache.Caches;
+import dk.dma.msinm.model.Message;
+import dk.dma.msinm.vo.MessageVo;
+import org.infinispan.Cache;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.eviction.EvictionStrategy;
+import org.infinispan.util.concurrent.IsolationLevel;
+import org.slf4j.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Implements the rendered message cache, i.e. the second tier of the message cache.
+ * <p>
+ * Whereas the {@linkplain MessageCache} holds the detached message entities, this cache holds
+ * the {@code MessageVo} value objects and their serialized UTF-8 JSON for the messages, per
+ * message version, language and view (e.g. "details" or "map").
+ * <p>
+ * The cache is keyed on the message id, so all rendered variants of a message are
+ * evicted along with the cached message entity.
+ * The cached value objects are shared, and must be treated as immutable.
+ */
+@ApplicationScoped
+public class MessageVoCache extends BaseCache {
+
+    final static long LIFESPAN = 30 * 60 * 1000;   // 30 minutes
+    final static int MAX_ENTRIES = 20000;          // at most 20.000 messages
+
+    final static String CACHE_ID = "messageVoCache";
+
+    @Inject
+    private Logger log;
+
+    /**
+     * Returns a reference to the rendered message cache
+     * @return a reference to the rendered message cache
+     */
+    public Cache<Integer, RenderedMessages> getCache() {
+        return cacheContainer.getCache(CACHE_ID);
+    }
+
+    /**
+     * Returns the cached rendered message for the given message and variant,
+     * or null if not cached for the current version of the message
+     *
+     * @param message the message
+     * @param variant the variant, i.e. the language and view
+     * @return the cached rendered message, or null if not found
+     */
+    public RenderedMessage get(Message message, String variant) {
+        RenderedMessages renderedMessages = getCache().get(message.getId());
+        if (renderedMessages != null && Objects.equals(renderedMessages.version, message.getVersion())) {
+            return renderedMessages.variants.get(variant);
+        }
+        return null;
+    }
+
+    /**
+     * Caches the rendered message for the given message and variant.
+     * <p>
+     * The variants of a message are replaced rather than updated, so a concurrent put
+     * may drop a variant, in which case it will just be rendered again.
+     *
+     * @param message the message
+     * @param variant the variant, i.e. the language and view
+     * @param renderedMessage the rendered message
+     */
+    public void put(Message message, String variant, RenderedMessage renderedMessage) {
+        RenderedMessages renderedMessages = getCache().get(message.getId());
+        Map<String, RenderedMessage> variants = new HashMap<>();
+        if (renderedMessages != null && Objects.equals(renderedMessages.version, message.getVersion())) {
+            variants.putAll(renderedMessages.variants);
+        }
+        variants.put(variant, renderedMessage);
+
+        // Only populate the local cache. Other cluster nodes render the messages themselves
+        Caches.localWrites(getCache()).put(message.getId(), new RenderedMessages(message.getVersion(), variants));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCacheId() {
+        return CACHE_ID;
+    }
+
+    /**
+     * Clears the cache
+     */
+    @Override
+    public  void clearCache() {
+        log.info("Clearing cache " + CACHE_ID);
+        getCache().clear();
+    }
+
+    /**
+     * When clustered, evicting a message on one node evicts the rendered message on all nodes
+     */
+    @Override
+    protected CacheMode getClusteredCacheMode() {
+        return CacheMode.INVALIDATION_SYNC;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Configuration createCacheConfiguration() {
+        return new ConfigurationBuilder()
+                .clustering().cacheMode(CacheMode.LOCAL)
+                .locking().isolationLevel(IsolationLevel.REPEATABLE_READ)
+                .eviction().maxEntries(MAX_ENTRIES).strategy(EvictionStrategy.LRU)
+                .expiration().lifespan(LIFESPAN)
+                .build();
+    }
+
+    /**
+     * The rendered variants of a specific version of a message
+     */
+    public static class RenderedMessages {
+
+        final Integer version;
+        final Map<String, RenderedMessage> variants;
+
+        /**
+         * Constructor
+         * @param version the message version
+         * @param variants the rendered variants of the message
+         */
+        public RenderedMessages(Integer version, Map<String, RenderedMessage> variants) {
+            this.version = version;
+            this.variants = Collections.unmodifiableMap(variants);
+        }
+    }
+
+    /**
+     * A rendered message, i.e. the message value object and its serialized UTF-8 JSON
+     */
+    public static class RenderedMessage {
+
+        final MessageVo messageVo;
+        final byte[] json;
+
+        /**
+         * Constructor
+         * @param messageVo the message value object
+         * @param json the serialized UTF-8 JSON of the message value object
+         */
+        public RenderedMessage(MessageVo messageVo, byte[] json) {
+            this.messageVo = messageVo;
+            this.json = json;
+        }
+
+        public MessageVo getMessageVo() {
+            return messageVo;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+    }
+}
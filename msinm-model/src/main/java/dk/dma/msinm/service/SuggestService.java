@@ -0,0 +1,280 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import dk.dma.msinm.lucene.LuceneUtils;
+import dk.dma.msinm.lucene.NGramAnalyzer;
+import dk.dma.msinm.model.Area;
+import dk.dma.msinm.model.AreaDesc;
+import dk.dma.msinm.model.Category;
+import dk.dma.msinm.model.CategoryDesc;
+import dk.dma.msinm.model.Chart;
+import dk.dma.msinm.model.SeriesIdentifier;
+import dk.dma.msinm.user.User;
+import dk.dma.msinm.vo.ChartVo;
+import dk.dma.msinm.vo.SuggestionVo;
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.BooleanFilter;
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Provides typeahead suggestions for areas, categories, charts, message series identifiers and users.
+ * <p>
+ * The suggestions are served from an in-memory Lucene index, where the names are indexed as n-grams,
+ * so that infix searches are resolved as plain term lookups rather than database {@code LIKE} queries.
+ * <p>
+ * The index is re-built whenever the underlying data has changed, which is checked every minute.
+ */
+@Singleton
+@Startup
+@Lock(LockType.READ)
+public class SuggestService {
+
+    /**
+     * The types of suggestions
+     */
+    public enum SuggestionType { AREA, CATEGORY, CHART, MESSAGE, USER }
+
+    final static String TYPE_FIELD          = "type";
+    final static String ID_FIELD            = "id";
+    final static String LANG_FIELD          = "lang";
+    final static String NAME_FIELD          = "name";
+    final static String DESCRIPTION_FIELD   = "description";
+    final static String PREFIX_FIELD        = "prefix";
+    final static String WORD_FIELD          = "word";
+    final static String NGRAM_FIELD         = WORD_FIELD + NGramAnalyzer.NGRAM_FIELD_SUFFIX;
+    final static String ANY_LANG            = "*";
+    final static float PREFIX_BOOST         = 10.0f;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    Logger log;
+
+    volatile IndexSearcher searcher;
+    volatile String dataVersion;
+
+    /**
+     * Builds the suggest index
+     */
+    @PostConstruct
+    public void init() {
+        updateSuggestIndex();
+    }
+
+    /**
+     * Called every minute to re-build the suggest index if the underlying data has changed
+     */
+    @Schedule(persistent=false, second="21", minute="*/1", hour="*", dayOfWeek="*", year="*")
+    public void updateSuggestIndex() {
+        try {
+            String version = computeDataVersion();
+            if (!version.equals(dataVersion)) {
+                rebuildIndex();
+                dataVersion = version;
+            }
+        } catch (Exception e) {
+            log.error("Failed updating the suggest index", e);
+        }
+    }
+
+    /**
+     * Computes a version string of the suggested data from the count and last update of each entity type
+     * @return a version string of the suggested data
+     */
+    private String computeDataVersion() {
+        return Arrays.asList("Area", "Category", "Chart", "Message", "User").stream()
+                .map(entity -> Arrays.toString(em
+                        .createQuery("select count(e), max(e.updated) from " + entity + " e", Object[].class)
+                        .getSingleResult()))
+                .collect(Collectors.joining());
+    }
+
+    /**
+     * Re-builds the suggest index from scratch, and swaps it in once completed
+     */
+    private void rebuildIndex() throws IOException {
+        long t0 = System.currentTimeMillis();
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriterConfig iwc = new IndexWriterConfig(
+                LuceneUtils.LUCENE_VERSION,
+                NGramAnalyzer.wrap(new StandardAnalyzer(LuceneUtils.LUCENE_VERSION)));
+
+        int count = 0;
+        try (IndexWriter writer = new IndexWriter(directory, iwc)) {
+
+            for (Area area : em.createNamedQuery("Area.findAreasWithDescs", Area.class).getResultList()) {
+                for (AreaDesc desc : area.getDescs()) {
+                    count += addSuggestion(writer, SuggestionType.AREA, area.getId(), desc.getLang(), desc.getName(), null, null);
+                }
+            }
+
+            for (Category category : em.createNamedQuery("Category.findCategoriesWithDescs", Category.class).getResultList()) {
+                for (CategoryDesc desc : category.getDescs()) {
+                    count += addSuggestion(writer, SuggestionType.CATEGORY, category.getId(), desc.getLang(), desc.getName(), null, null);
+                }
+            }
+
+            for (Chart chart : em.createNamedQuery("Chart.findAll", Chart.class).getResultList()) {
+                String chartNumber = new ChartVo(chart).getFullChartNumber();
+                count += addSuggestion(writer, SuggestionType.CHART, chart.getId(), null, chartNumber, chart.getName(), chart.getName());
+            }
+
+            for (Object[] row : em.createNamedQuery("Message.findSeriesIdentifiers", Object[].class).getResultList()) {
+                SeriesIdentifier id = (SeriesIdentifier) row[1];
+                count += addSuggestion(writer, SuggestionType.MESSAGE, (Integer) row[0], null, id.getShortId(), null, id.getFullId());
+            }
+
+            for (User user : em.createQuery("select u from User u", User.class).getResultList()) {
+                count += addSuggestion(writer, SuggestionType.USER, user.getId(), null, user.getName(), user.getEmail(), user.getEmail());
+            }
+        }
+
+        // Swap in the new index. The old in-memory index is left for garbage collection,
+        // since it may still be in use by concurrent suggest requests
+        searcher = new IndexSearcher(DirectoryReader.open(directory));
+        log.info("Built suggest index with " + count + " suggestions in " + (System.currentTimeMillis() - t0) + " ms");
+    }
+
+    /**
+     * Adds a suggestion to the index
+     *
+     * @param writer the index writer
+     * @param type the suggestion type
+     * @param id the id of the suggested entity
+     * @param lang the language of the suggestion, or null if it is language independent
+     * @param name the name of the suggestion
+     * @param description an optional description
+     * @param text optional additional text to match
+     * @return the number of suggestions added
+     */
+    private int addSuggestion(IndexWriter writer, SuggestionType type, Integer id, String lang, String name, String description, String text) throws IOException {
+        if (StringUtils.isBlank(name)) {
+            return 0;
+        }
+        String searchText = LuceneUtils.normalize(StringUtils.isBlank(text) ? name : name + " " + text);
+
+        Document doc = new Document();
+        doc.add(new StringField(TYPE_FIELD, type.name(), Field.Store.YES));
+        doc.add(new StoredField(ID_FIELD, id));
+        doc.add(new StringField(LANG_FIELD, lang == null ? ANY_LANG : lang, Field.Store.NO));
+        doc.add(new StoredField(NAME_FIELD, name));
+        if (description != null) {
+            doc.add(new StoredField(DESCRIPTION_FIELD, description));
+        }
+        doc.add(new StringField(PREFIX_FIELD, LuceneUtils.normalize(name).toLowerCase(), Field.Store.NO));
+        doc.add(new TextField(WORD_FIELD, searchText, Field.Store.NO));
+        doc.add(new TextField(NGRAM_FIELD, searchText, Field.Store.NO));
+        writer.addDocument(doc);
+        return 1;
+    }
+
+    /**
+     * Returns the suggestions matching the given term.
+     * <p>
+     * All words of the term must match a word of the suggestion, either as an infix or,
+     * for words shorter than the n-gram size, as a prefix. Suggestions whose names start
+     * with the term are ranked first.
+     *
+     * @param term the term to match
+     * @param lang the language
+     * @param types the suggestion types to include, or null or empty for all types
+     * @param limit the maximum number of suggestions
+     * @return the matching suggestions
+     */
+    public List<SuggestionVo> suggest(String term, String lang, Set<SuggestionType> types, int limit) {
+        List<SuggestionVo> result = new ArrayList<>();
+        IndexSearcher searcher = this.searcher;
+        if (StringUtils.isBlank(term) || searcher == null || limit <= 0) {
+            return result;
+        }
+
+        String normalizedTerm = LuceneUtils.normalize(term).toLowerCase().trim();
+        BooleanQuery query = new BooleanQuery();
+        for (String word : normalizedTerm.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() >= NGramAnalyzer.MIN_GRAM) {
+                query.add(NGramAnalyzer.infixQuery(NGRAM_FIELD, word), BooleanClause.Occur.MUST);
+            } else if (word.length() > 0) {
+                query.add(new PrefixQuery(new Term(WORD_FIELD, word)), BooleanClause.Occur.MUST);
+            }
+        }
+        if (query.clauses().isEmpty()) {
+            return result;
+        }
+        PrefixQuery prefixQuery = new PrefixQuery(new Term(PREFIX_FIELD, normalizedTerm));
+        prefixQuery.setBoost(PREFIX_BOOST);
+        query.add(prefixQuery, BooleanClause.Occur.SHOULD);
+
+        // Filter by language and type
+        BooleanFilter filter = new BooleanFilter();
+        filter.add(new TermsFilter(LANG_FIELD, new BytesRef(ANY_LANG), new BytesRef(StringUtils.defaultString(lang))), BooleanClause.Occur.MUST);
+        if (types != null && !types.isEmpty()) {
+            filter.add(new TermsFilter(TYPE_FIELD, types.stream()
+                    .map(type -> new BytesRef(type.name()))
+                    .collect(Collectors.toList())), BooleanClause.Occur.MUST);
+        }
+
+        try {
+            TopDocs docs = searcher.search(query, filter, limit);
+            for (ScoreDoc scoreDoc : docs.scoreDocs) {
+                Document doc = searcher.doc(scoreDoc.doc);
+                result.add(new SuggestionVo(
+                        SuggestionType.valueOf(doc.get(TYPE_FIELD)),
+                        doc.getField(ID_FIELD).numericValue().intValue(),
+                        doc.get(NAME_FIELD),
+                        doc.get(DESCRIPTION_FIELD)));
+            }
+        } catch (IOException e) {
+            log.error("Error performing suggest search for term " + term, e);
+        }
+        return result;
+    }
+}
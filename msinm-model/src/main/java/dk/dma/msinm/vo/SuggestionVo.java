@@ -0,0 +1,96 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.vo;
+
+import dk.dma.msinm.common.vo.JsonSerializable;
+import dk.dma.msinm.service.SuggestService.SuggestionType;
+
+/**
+ * Value object for a typeahead suggestion
+ */
+public class SuggestionVo implements JsonSerializable {
+
+    SuggestionType type;
+    Integer id;
+    String name;
+    String description;
+
+    /**
+     * Constructor
+     */
+    public SuggestionVo() {
+    }
+
+    /**
+     * Constructor
+     * @param type the type of the suggested entity
+     * @param id the id of the suggested entity
+     * @param name the name of the suggestion
+     * @param description an optional description of the suggestion
+     */
+    public SuggestionVo(SuggestionType type, Integer id, String name, String description) {
+        this.type = type;
+        this.id = id;
+        this.name = name;
+        this.description = description;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "SuggestionVo{" +
+                "type=" + type +
+                ", id=" + id +
+                ", name='" + name + '\'' +
+                '}';
+    }
+
+    // ******** Getters and setters ********
+
+    public SuggestionType getType() {
+        return type;
+    }
+
+    public void setType(SuggestionType type) {
+        this.type = type;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+}
@@ -33,6 +33,8 @@ import org.slf4j.Logger;
 
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -73,6 +75,10 @@ public class CategoryServiceTest extends MsiNmUnitTest {
 
         assertEquals(3, categoryService.getAll(Category.class).size());
 
+        // Check the lineage and the derived ancestor ID's used for sub-tree filtering
+        assertEquals("/" + atn.getId() + "/" + buoy.getId() + "/", buoy.getLineage());
+        assertEquals(new HashSet<>(Arrays.asList(atn.getId(), buoy.getId())), buoy.getAncestorIds());
+
         assertNotNull(categoryService.findByName("buoy", null, null));
         assertNotNull(categoryService.findByName("buoy", "en", null));
         assertNull(categoryService.findByName("buoy", "da", null));
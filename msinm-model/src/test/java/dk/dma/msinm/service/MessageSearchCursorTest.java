@@ -0,0 +1,73 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the {@linkplain MessageSearchCursor} used for keyset pagination
+ */
+public class MessageSearchCursorTest {
+
+    /**
+     * Creates search parameters with the given sort order and cursor
+     */
+    private MessageSearchParams createParams(MessageSearchParams.SortBy sortBy, MessageSearchParams.SortOrder sortOrder, String cursor) {
+        MessageSearchParams param = new MessageSearchParams();
+        param.setSortBy(sortBy);
+        param.setSortOrder(sortOrder);
+        param.setCursor(cursor);
+        return param;
+    }
+
+    @Test
+    public void testParseCursor() {
+        String cursor = new MessageSearchCursor(MessageSearchParams.SortBy.ID, MessageSearchParams.SortOrder.DESC, 2014, 12, 345).encode();
+
+        MessageSearchCursor parsed = MessageSearchCursor.parse(
+                createParams(MessageSearchParams.SortBy.ID, MessageSearchParams.SortOrder.DESC, cursor));
+        assertEquals(MessageSearchParams.SortBy.ID, parsed.getSortBy());
+        assertEquals(MessageSearchParams.SortOrder.DESC, parsed.getSortOrder());
+        assertArrayEquals(new long[] { 2014, 12, 345 }, parsed.getKeys());
+
+        assertNull(MessageSearchCursor.parse(
+                createParams(MessageSearchParams.SortBy.ID, MessageSearchParams.SortOrder.DESC, null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedCursor() {
+        MessageSearchCursor.parse(
+                createParams(MessageSearchParams.SortBy.DATE, MessageSearchParams.SortOrder.DESC, "not-a-cursor"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCursorSortByMismatch() {
+        String cursor = new MessageSearchCursor(MessageSearchParams.SortBy.DATE, MessageSearchParams.SortOrder.DESC, 1000L, 1).encode();
+        MessageSearchCursor.parse(
+                createParams(MessageSearchParams.SortBy.AREA, MessageSearchParams.SortOrder.DESC, cursor));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCursorSortOrderMismatch() {
+        String cursor = new MessageSearchCursor(MessageSearchParams.SortBy.DATE, MessageSearchParams.SortOrder.DESC, 1000L, 1).encode();
+        MessageSearchCursor.parse(
+                createParams(MessageSearchParams.SortBy.DATE, MessageSearchParams.SortOrder.ASC, cursor));
+    }
+}
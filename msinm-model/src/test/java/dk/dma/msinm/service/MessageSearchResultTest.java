@@ -0,0 +1,144 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.dma.msinm.vo.MessageVo;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@linkplain MessageSearchResult} handling and serialization of the shared, pre-rendered messages
+ */
+public class MessageSearchResultTest {
+
+    final ObjectMapper jsonMapper = new ObjectMapper();
+
+    /**
+     * Creates a message with an English and a Danish title
+     */
+    private MessageVo createMessage(Integer id) {
+        MessageVo messageVo = new MessageVo();
+        messageVo.setId(id);
+        messageVo.createDesc("en").setTitle("Buoy " + id + " missing");
+        messageVo.createDesc("da").setTitle("Bøje " + id + " mangler");
+        return messageVo;
+    }
+
+    /**
+     * Renders the message, as the {@linkplain MessageVoCache} entries are rendered
+     */
+    private MessageVoCache.RenderedMessage render(MessageVo messageVo) throws IOException {
+        return new MessageVoCache.RenderedMessage(messageVo, jsonMapper.writeValueAsBytes(messageVo));
+    }
+
+    /**
+     * Writes the search result using {@linkplain MessageSearchResult#writeJson} and parses the output
+     */
+    private JsonNode writeJson(MessageSearchResult result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        result.writeJson(out);
+        return jsonMapper.readTree(out.toByteArray());
+    }
+
+    /**
+     * Creates a search result with the given rendered messages and bookmarks
+     */
+    private MessageSearchResult createResult(List<MessageVoCache.RenderedMessage> rendered, Integer bookmarkId) {
+        MessageSearchResult result = new MessageSearchResult();
+        result.addMessages(rendered, Collections.singleton(bookmarkId));
+        result.setTotal(10);
+        result.setCursor("cursor");
+        Map<String, Integer> areaFacet = new HashMap<>();
+        areaFacet.put("7", 2);
+        result.getFacets().put("area", areaFacet);
+        return result;
+    }
+
+    @Test
+    public void testWriteJson() throws IOException {
+        List<MessageVoCache.RenderedMessage> rendered = Arrays.asList(render(createMessage(1)), render(createMessage(2)));
+
+        // Check that the spliced output is valid JSON, with the bookmarked flags of the user
+        JsonNode json = writeJson(createResult(rendered, 2));
+        assertEquals(2, json.get("messages").size());
+        assertFalse(json.get("messages").get(0).get("bookmarked").asBoolean());
+        assertTrue(json.get("messages").get(1).get("bookmarked").asBoolean());
+        assertEquals("Buoy 2 missing", json.get("messages").get(1).get("descs").get(0).get("title").asText());
+        assertEquals(10, json.get("total").asInt());
+        assertEquals(2, json.get("facets").get("area").get("7").asInt());
+
+        // The spliced output must match the normal serialization of the search result
+        MessageSearchResult copy = createResult(rendered, 2);
+        copy.copyMessages();
+        assertEquals(jsonMapper.readTree(jsonMapper.writeValueAsBytes(copy)), json);
+        assertEquals(json, writeJson(copy));
+
+        // The bookmarked flags are per user, and are never written to the shared messages
+        json = writeJson(createResult(rendered, 1));
+        assertTrue(json.get("messages").get(0).get("bookmarked").asBoolean());
+        assertFalse(json.get("messages").get(1).get("bookmarked").asBoolean());
+        assertNull(rendered.get(0).getMessageVo().isBookmarked());
+        assertNull(rendered.get(1).getMessageVo().isBookmarked());
+    }
+
+    @Test
+    public void testWriteEmptyJson() throws IOException {
+        MessageSearchResult result = new MessageSearchResult();
+        result.setOverflowed(true);
+        JsonNode json = writeJson(result);
+        assertEquals(0, json.get("messages").size());
+        assertTrue(json.get("overflowed").asBoolean());
+        assertEquals(jsonMapper.readTree(jsonMapper.writeValueAsBytes(result)), json);
+    }
+
+    @Test
+    public void testCopiedMessagesNotShared() throws IOException {
+        MessageVoCache.RenderedMessage rendered = render(createMessage(1));
+        byte[] json = rendered.getJson().clone();
+
+        // Copy and mutate the messages of a search result, as e.g. the mail publishers do
+        MessageSearchResult result = new MessageSearchResult();
+        result.addMessages(Collections.singletonList(rendered), Collections.emptySet());
+        result.copyMessages();
+        MessageVo copy = result.getMessages().get(0);
+        copy.sortDescsByLang("da");
+        copy.getDesc("da").setTitle("Changed");
+        assertEquals("da", copy.getDescs().get(0).getLang());
+
+        // The next search result using the cached message must be unaffected
+        MessageSearchResult next = new MessageSearchResult();
+        next.addMessages(Collections.singletonList(rendered), Collections.emptySet());
+        List<MessageVo.MessageDescVo> descs = next.getMessages().get(0).getDescs();
+        assertEquals("en", descs.get(0).getLang());
+        assertEquals("Bøje 1 mangler", next.getMessages().get(0).getDesc("da").getTitle());
+        assertArrayEquals(json, rendered.getJson());
+    }
+}
@@ -26,6 +26,8 @@ import dk.dma.msinm.model.*;
 import dk.dma.msinm.test.MsiNmUnitTest;
 import dk.dma.msinm.test.TestResources;
 import dk.dma.msinm.user.UserService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.jglue.cdiunit.AdditionalClasses;
 import org.jglue.cdiunit.CdiRunner;
 import org.junit.After;
@@ -42,6 +44,7 @@ import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit tests for the MessageService
@@ -108,6 +111,58 @@ public class MessageServiceTest extends MsiNmUnitTest {
         messageService.remove(message);
     }
 
+    @Test
+    public void testColdMessageStatementCount() throws Exception {
+
+        // The root query, the 6 message association fetch queries and the 3 location fetch queries
+        final long maxStatements = 1 + 6 + 3;
+
+        Message message = messageService.create(createMessage());
+
+        // Create a message with more locations and points
+        Message largeMessage = createMessage();
+        for (int x = 0; x < 5; x++) {
+            Location loc = new Location(Location.LocationType.POLYLINE);
+            for (int y = 0; y < 10; y++) {
+                loc.addPoint(new Point(loc, 55.0 + x * 0.1, 11.0 + y * 0.1));
+            }
+            largeMessage.getLocations().add(loc);
+        }
+        largeMessage = messageService.create(largeMessage);
+
+        entityManager.flush();
+        entityManager.clear();
+
+        long statements = countColdLoadStatements(message.getId());
+        log.info("Cold message load executed " + statements + " statements");
+        assertTrue("Cold message load executed " + statements + " statements", statements <= maxStatements);
+
+        // The number of statements must not depend on the size of the message
+        assertEquals(statements, countColdLoadStatements(largeMessage.getId()));
+
+        messageService.remove(messageService.findById(message.getId()));
+        messageService.remove(messageService.findById(largeMessage.getId()));
+    }
+
+    /**
+     * Returns the number of statements executed when loading the given message into the message cache
+     * @param id the id of the message
+     * @return the number of statements executed
+     */
+    private long countColdLoadStatements(Integer id) {
+        messageService.evictCachedMessageId(id);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+        try {
+            assertNotNull(messageService.getCachedMessage(id));
+            return statistics.getPrepareStatementCount();
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
 
 
     public static Message createMessage() throws ParseException {
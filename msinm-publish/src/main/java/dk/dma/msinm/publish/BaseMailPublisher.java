@@ -90,6 +90,9 @@ public abstract class BaseMailPublisher extends Publisher {
                 // Get the search result
                 MessageSearchResult result = messageSearchService.search(params);
 
+                // The messages are shared with the message cache, so copy them before sorting the descs by language
+                result.copyMessages();
+
                 // Extract the message that are set to be published
                 List<MessageVo> messages = result.getMessages();
                 Map<String, Object> mailData = new HashMap<>();
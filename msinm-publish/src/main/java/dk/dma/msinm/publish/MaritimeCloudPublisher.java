@@ -353,6 +353,8 @@ public class MaritimeCloudPublisher extends Publisher {
             MessageSearchResult searchResult =  messageSearchService.search(params);
             log.info(String.format("Search [%s] returns %d of %d messages in %d ms", params.toString(), searchResult.getMessages().size(), searchResult.getTotal(), System.currentTimeMillis() - t0));
 
+            // The messages are shared with the message cache, so copy them before adding attachments
+            searchResult.copyMessages();
             searchResult.getMessages().stream()
                     .map(this::fetchAttachments)    // Fetch message attachments
                     .map(MsdlUtils::convert)        // Convert to MCMessage
@@ -49,6 +49,14 @@ public class AuthCache extends BaseCache {
         return cacheContainer.getCache(CACHE_ID);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCacheId() {
+        return CACHE_ID;
+    }
+
     /**
      * Clears the cache
      */
@@ -58,12 +66,20 @@ public class AuthCache extends BaseCache {
         getCache().clear();
     }
 
+    /**
+     * When clustered, the auth tokens are replicated, since a token issued by one node
+     * may be redeemed by the client on another node
+     */
+    @Override
+    protected CacheMode getClusteredCacheMode() {
+        return CacheMode.REPL_SYNC;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     protected Configuration createCacheConfiguration() {
-        // TODO: This should be changed to use a clustered cache
         return new ConfigurationBuilder()
                 .clustering().cacheMode(CacheMode.LOCAL)
                 .locking().isolationLevel(IsolationLevel.REPEATABLE_READ)
@@ -17,6 +17,7 @@ package dk.dma.msinm.user.security;
 
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
+import java.io.Serializable;
 import java.util.Arrays;
 
 /**
@@ -25,7 +26,7 @@ import java.util.Arrays;
  * The {@code token} attributes contains the entire signed JWT token,
  * and the remaining attributes contain public information about the user.
  */
-public class JWTToken {
+public class JWTToken implements Serializable {
     private String token;
     private String name;
     private String email;
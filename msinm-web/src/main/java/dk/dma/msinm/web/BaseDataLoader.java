@@ -89,13 +89,12 @@ public class BaseDataLoader extends BaseService {
 
         checkLoadBaseData(Chart.class, chartsSql);
 
-        if (checkLoadBaseData(Area.class, areasSql)) {
-            areaService.updateLineages();
-        }
+        // Always update the lineages, since this also populates the ancestor ID's of existing data
+        checkLoadBaseData(Area.class, areasSql);
+        areaService.updateLineages();
 
-        if (checkLoadBaseData(Category.class, categoriesSql)) {
-            categoryService.updateLineages();
-        }
+        checkLoadBaseData(Category.class, categoriesSql);
+        categoryService.updateLineages();
 
         if (checkLoadBaseData(ListParamType.class, baseTemplateParamsSql)) {
             templateService.loadBaseTemplateData("/sql/base-templates.json");
@@ -106,7 +106,8 @@ public class MsiNmTileServlet extends HttpServlet {
         int x = Integer.parseInt(m.group(2));
         int y = Integer.parseInt(m.group(3));
 
-        // If the message index has not indexed all messages, return a blank image
+        // If the message index has not indexed all messages, e.g. while it is being re-created,
+        // return a blank image rather than caching tiles rendered from a partial index
         if (!messageSearchService.isAllIndexed()) {
             redirect(response, BLANK_IMAGE, false);
             return;
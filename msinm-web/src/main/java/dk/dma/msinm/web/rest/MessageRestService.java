@@ -24,6 +24,8 @@ import dk.dma.msinm.common.time.TimeParser;
 import dk.dma.msinm.common.time.TimeProcessor;
 import dk.dma.msinm.common.time.TimeTranslator;
 import dk.dma.msinm.common.vo.JsonSerializable;
+import dk.dma.msinm.lucene.IndexStats;
+import dk.dma.msinm.lucene.ReindexStatus;
 import dk.dma.msinm.model.Message;
 import dk.dma.msinm.model.Reference;
 import dk.dma.msinm.model.ReferenceType;
@@ -31,6 +33,7 @@ import dk.dma.msinm.model.SeriesIdentifier;
 import dk.dma.msinm.model.Status;
 import dk.dma.msinm.service.CalendarService;
 import dk.dma.msinm.service.CategoryService;
+import dk.dma.msinm.service.MessageSearchCursor;
 import dk.dma.msinm.service.MessageSearchParams;
 import dk.dma.msinm.service.MessageSearchResult;
 import dk.dma.msinm.service.MessageSearchService;
@@ -396,14 +399,21 @@ public class MessageRestService {
      ***************************/
 
     /**
-     * Main search method
+     * Main search method.
+     * <p>
+     * Paging is either offset-based via the "startIndex" parameter, or keyset-based via
+     * the "cursor" parameter, as returned in the search result of the previous page.
+     * An invalid cursor, or a cursor issued for a different sort order, is rejected
+     * with a 400 (Bad Request) response.
+     * <p>
+     * The search result is streamed using the pre-rendered JSON of the messages.
      */
     @GET
     @Path("/search")
     @Produces("application/json;charset=UTF-8")
     @GZIP
     @NoCache
-    public MessageSearchResult search(
+    public StreamingOutput search(
             @QueryParam("lang") String language,
             @QueryParam("q") String query,
             @QueryParam("status") @DefaultValue("PUBLISHED") String status,
@@ -418,13 +428,21 @@ public class MessageRestService {
             @QueryParam("startIndex") @DefaultValue("0") int startIndex,
             @QueryParam("sortBy") @DefaultValue("DATE") String sortBy,
             @QueryParam("sortOrder") @DefaultValue("DESC") String sortOrder,
-            @QueryParam("mapMode") @DefaultValue("false") boolean mapMode
+            @QueryParam("mapMode") @DefaultValue("false") boolean mapMode,
+            @QueryParam("cursor") String cursor
     ) throws Exception {
         long t0 = System.currentTimeMillis();
         MessageSearchParams params = MessageSearchParams.readParams(language, query, status, type, loc, areas, categories, charts, fromDate, toDate, maxHits, startIndex, sortBy, sortOrder, mapMode);
+        params.setCursor(cursor);
+        try {
+            MessageSearchCursor.parse(params);
+        } catch (IllegalArgumentException e) {
+            log.debug("Rejecting search: " + e.getMessage());
+            throw new WebApplicationException("Invalid search cursor", Response.Status.BAD_REQUEST);
+        }
         MessageSearchResult searchResult = messageSearchService.search(params);
         log.info(String.format("Search [%s] returns %d of %d messages in %d ms", params.toString(), searchResult.getMessages().size(), searchResult.getTotal(), System.currentTimeMillis() - t0));
-        return searchResult;
+        return searchResult::writeJson;
     }
 
     /**
@@ -435,7 +453,7 @@ public class MessageRestService {
     @Produces("application/json;charset=UTF-8")
     @GZIP
     @NoCache
-    public MessageSearchResult searchPublished(
+    public StreamingOutput searchPublished(
             @QueryParam("lang") String language,
             @QueryParam("sortBy") @DefaultValue("DATE") String sortBy,
             @QueryParam("sortOrder") @DefaultValue("DESC") String sortOrder,
@@ -445,6 +463,8 @@ public class MessageRestService {
         MessageSearchParams params = MessageSearchParams.readParams(language, "", "PUBLISHED", "", "", "", "", "", "", "", 1000, 0, sortBy, sortOrder, false);
         MessageSearchResult searchResult =  messageSearchService.search(params);
         if (attachments) {
+            // The messages are shared with the message cache, so copy them before adding attachments
+            searchResult.copyMessages();
             searchResult.getMessages().stream()
                     .forEach(msg -> {
                         try {
@@ -458,7 +478,7 @@ public class MessageRestService {
                     });
         }
         log.trace(String.format("Search [%s] returns %d of %d messages in %d ms", params.toString(), searchResult.getMessages().size(), searchResult.getTotal(), System.currentTimeMillis() - t0));
-        return searchResult;
+        return searchResult::writeJson;
     }
 
     /**
@@ -469,12 +489,12 @@ public class MessageRestService {
     @Produces("application/json;charset=UTF-8")
     @GZIP
     @NoCache
-    public MessageSearchResult searchFiringExercises(
+    public StreamingOutput searchFiringExercises(
             @QueryParam("lang") String language
     ) throws Exception {
         String categoryId = String.valueOf(categoryService.findOrCreateFiringExercisesCategory().getId());
         MessageSearchParams params = MessageSearchParams.readParams(language, "", "PUBLISHED", "MSI", "", "", categoryId, "", "", "", 1000, 0, "AREA", "ASC", false);
-        return messageSearchService.search(params);
+        return messageSearchService.search(params)::writeJson;
     }
 
     /***************************
@@ -662,7 +682,8 @@ public class MessageRestService {
 
 
     /**
-     * Re-creates the message search index.
+     * Initiates a re-creation of the message search index.
+     * The progress can be monitored via "/search-index-status".
      * Requires the "admin" role
      */
     @GET
@@ -671,13 +692,40 @@ public class MessageRestService {
     public String recreateSearchIndex() {
         try {
             log.info("Recreating message search index");
-            messageSearchService.recreateIndex();
+            messageSearchService.recreateIndexAsync();
         } catch (IOException e) {
             log.error("Error recreating message search index");
         }
         return "OK";
     }
 
+    /**
+     * Returns the progress and throughput of the current or latest re-creation of the message search index.
+     * Requires the "admin" role
+     */
+    @GET
+    @Path("/search-index-status")
+    @Produces("application/json;charset=UTF-8")
+    @NoCache
+    @RolesAllowed({"admin"})
+    public ReindexStatus getSearchIndexStatus() {
+        return messageSearchService.getReindexStatus();
+    }
+
+    /**
+     * Returns the maintenance statistics of the message search index, such as
+     * the segment count and background merge activity.
+     * Requires the "admin" role
+     */
+    @GET
+    @Path("/search-index-stats")
+    @Produces("application/json;charset=UTF-8")
+    @NoCache
+    @RolesAllowed({"admin"})
+    public IndexStats getSearchIndexStats() {
+        return messageSearchService.getIndexStats();
+    }
+
     /***************************
      * Publisher functionality
      ***************************/
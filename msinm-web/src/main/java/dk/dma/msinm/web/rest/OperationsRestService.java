@@ -15,9 +15,14 @@
  */
 package dk.dma.msinm.web.rest;
 
+import dk.dma.msinm.common.cache.CacheStats;
+import dk.dma.msinm.common.cache.Caches;
 import dk.dma.msinm.common.settings.SettingsCache;
 import dk.dma.msinm.service.MessageCache;
+import dk.dma.msinm.service.MessageSearchCache;
+import dk.dma.msinm.service.MessageVoCache;
 import org.jboss.ejb3.annotation.SecurityDomain;
+import org.jboss.resteasy.annotations.cache.NoCache;
 
 import javax.annotation.security.RolesAllowed;
 import javax.ejb.Stateless;
@@ -25,6 +30,8 @@ import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import java.util.List;
 
 /**
  * REST interface for various Operations functionality
@@ -35,12 +42,21 @@ import javax.ws.rs.PathParam;
 @RolesAllowed({ "sysadmin" })
 public class OperationsRestService {
 
+    @Inject
+    private Caches caches;
+
     @Inject
     private SettingsCache settingsCache;
 
     @Inject
     private MessageCache messageCache;
 
+    @Inject
+    private MessageSearchCache messageSearchCache;
+
+    @Inject
+    private MessageVoCache messageVoCache;
+
     /**
      * Resets various caches
      */
@@ -51,6 +67,10 @@ public class OperationsRestService {
 
         if ("all".equals(cacheId) || "message".equals(cacheId)) {
             messageCache.clearCache();
+            messageVoCache.clearCache();
+        }
+        if ("all".equals(cacheId) || "message-search".equals(cacheId)) {
+            messageSearchCache.clearCache();
         }
         if ("all".equals(cacheId) || "settings".equals(cacheId)) {
             settingsCache.clearCache();
@@ -58,4 +78,15 @@ public class OperationsRestService {
 
         return String.format("Cleared %s cache(s) in %d ms", cacheId, System.currentTimeMillis() - t0);
     }
+
+    /**
+     * Returns the statistics of all caches, such as hits, misses, evictions and size
+     */
+    @GET
+    @Path("/cache-stats")
+    @Produces("application/json;charset=UTF-8")
+    @NoCache
+    public List<CacheStats> getCacheStats() {
+        return caches.getCacheStats();
+    }
 }
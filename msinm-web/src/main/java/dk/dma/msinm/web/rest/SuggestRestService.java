@@ -0,0 +1,101 @@
+/* Copyright (c) 2011 Danish Maritime Authority
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dk.dma.msinm.web.rest;
+
+import dk.dma.msinm.service.SuggestService;
+import dk.dma.msinm.service.SuggestService.SuggestionType;
+import dk.dma.msinm.vo.SuggestionVo;
+import org.apache.commons.lang.StringUtils;
+import org.jboss.ejb3.annotation.SecurityDomain;
+import org.jboss.resteasy.annotations.GZIP;
+import org.jboss.resteasy.annotations.cache.NoCache;
+
+import javax.annotation.Resource;
+import javax.annotation.security.PermitAll;
+import javax.ejb.SessionContext;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * REST interface for typeahead suggestions
+ */
+@Path("/suggest")
+@Stateless
+@SecurityDomain("msinm-policy")
+@PermitAll
+public class SuggestRestService {
+
+    @Resource
+    SessionContext ctx;
+
+    @Inject
+    SuggestService suggestService;
+
+    /**
+     * Returns the suggestions matching the given term.
+     * <p>
+     * User suggestions are only returned to administrators
+     *
+     * @param term  the search term
+     * @param lang  the language
+     * @param types comma-separated list of suggestion types, e.g. "area,category". Defaults to all types.
+     *              An unknown type is rejected with a 400 (Bad Request) response
+     * @param limit the maximum number of results
+     * @return the matching suggestions
+     */
+    @GET
+    @Path("/")
+    @Produces("application/json;charset=UTF-8")
+    @GZIP
+    @NoCache
+    public List<SuggestionVo> suggest(
+            @QueryParam("term") String term,
+            @QueryParam("lang") String lang,
+            @QueryParam("types") String types,
+            @QueryParam("limit") @DefaultValue("10") int limit) {
+
+        Set<SuggestionType> suggestionTypes = EnumSet.allOf(SuggestionType.class);
+        if (StringUtils.isNotBlank(types)) {
+            suggestionTypes.clear();
+            for (String type : types.split(",")) {
+                try {
+                    suggestionTypes.add(SuggestionType.valueOf(type.trim().toUpperCase()));
+                } catch (IllegalArgumentException e) {
+                    throw new WebApplicationException("Invalid suggestion type: " + type, Response.Status.BAD_REQUEST);
+                }
+            }
+        }
+        if (!ctx.isCallerInRole("admin")) {
+            suggestionTypes.remove(SuggestionType.USER);
+            if (suggestionTypes.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+
+        return suggestService.suggest(term, lang, suggestionTypes, limit);
+    }
+}